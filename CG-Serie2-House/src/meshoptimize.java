@@ -0,0 +1,45 @@
+import jrtr.*;
+
+import java.io.IOException;
+
+/**
+ * Reports how much {@link MeshOptimizer} improves the post-transform vertex
+ * cache behavior of OBJ meshes. For each file and FIFO cache size, the
+ * average cache miss ratio (ACMR, vertices transformed per triangle) of the
+ * index array is printed before and after the triangles are reordered, as
+ * simulated by {@link SWVertexCache#acmr(int[], int)}. The optimized order is
+ * what {@link SWRenderContext#setVertexCacheSize(int)} benefits from.
+ * <p>
+ * Usage: meshoptimize [obj files]. Without arguments, teapot.obj is used.
+ */
+public class meshoptimize {
+
+    static final int[] CACHE_SIZES = { 8, 16, 24, 32 };
+
+    public static void main(String[] args) throws IOException {
+        String[] files = args.length > 0 ? args : new String[] { "teapot.obj" };
+
+        for (String file : files) {
+            VertexData vertexData = ObjReader.read(file, 1);
+            int[] indices = vertexData.getIndices();
+            System.out.println(file + ": " + vertexData.getNumberOfVertices()
+                    + " vertices, " + indices.length / 3 + " triangles");
+            System.out.println("cache\tbefore\tafter");
+
+            for (int size : CACHE_SIZES) {
+                // Optimize a copy, so every cache size starts from the
+                // order of the file
+                VertexData copy = new VertexData(vertexData
+                        .getNumberOfVertices());
+                copy.addIndices(indices.clone());
+                MeshOptimizer optimizer = new MeshOptimizer(size);
+                long start = System.nanoTime();
+                optimizer.optimize(copy);
+                long time = System.nanoTime() - start;
+                System.out.printf("%d\t%.3f\t%.3f\t(%.1f ms)%n", size,
+                        optimizer.getACMRBefore(), optimizer.getACMRAfter(),
+                        time / 1e6);
+            }
+        }
+    }
+}
@@ -224,8 +224,15 @@ public class scene {
 
         vertexData.addIndices(indices);
 
+        // The cylinder is closed and its faces are wound counter-clockwise
+        // when seen from outside, so its back faces can be culled
+        Material material = new Material();
+        material.cullMode = Material.CullMode.BACK;
+
         // Make a shape and add the object
-        return new Shape(vertexData);
+        Shape shape = new Shape(vertexData);
+        shape.setMaterial(material);
+        return shape;
     }
 
     private static Shape makeBezier(int segments, Vector3f[] controlPoints,
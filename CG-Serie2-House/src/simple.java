@@ -208,8 +208,15 @@ public class simple {
 
         vertexData.addIndices(indices);
 
+        // The cylinder is closed and its faces are wound counter-clockwise
+        // when seen from outside, so its back faces can be culled
+        Material material = new Material();
+        material.cullMode = Material.CullMode.BACK;
+
         // Make a shape and add the object
-        return new Shape(vertexData);
+        Shape shape = new Shape(vertexData);
+        shape.setMaterial(material);
+        return shape;
     }
 
     public static Shape makeBall(int resolution) {
@@ -427,6 +434,7 @@ public class simple {
         material.diffuse = new Vector3f(0.5f,0.5f,0.5f);
         material.specular = new Vector3f(1f,0.5f,0.5f);
         material.shininess = 8;
+        material.cullMode = Material.CullMode.BACK;
 
 
         Shape shape = new Shape(vertexData);
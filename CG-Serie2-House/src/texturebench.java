@@ -0,0 +1,117 @@
+import jrtr.*;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+import javax.vecmath.*;
+
+/**
+ * Measures how fast the software renderer draws a large textured floor, like
+ * the xPlane() of the other demos, with the texture pixels stored in the
+ * different layouts of {@link SWTexture}. The floor is rotated around its
+ * normal, so for most angles the texture is read along diagonals.
+ * <p>
+ * Usage: texturebench [image file]. Without an image, a 2048x2048 noise
+ * texture is used.
+ */
+public class texturebench {
+
+    static final int WIDTH = 800, HEIGHT = 600;
+    static final int FRAMES = 20;
+
+    public static void main(String[] args) throws IOException {
+        BufferedImage image = args.length > 0 ? ImageIO.read(new File(args[0]))
+                : noise(2048, 2048);
+
+        SWTexture texture = new SWTexture();
+        texture.setTexture(image);
+        Material material = new Material();
+        material.setTexture(texture);
+        material.cullMode = Material.CullMode.NONE;
+
+        Shape plane = xPlane();
+        plane.setMaterial(material);
+
+        SimpleSceneManager sceneManager = new SimpleSceneManager();
+        sceneManager.addShape(plane);
+        Camera camera = sceneManager.getCamera();
+        camera.setCenterOfProjection(new Vector3f(0, -60, 20));
+        camera.setLookAtPoint(new Vector3f(0, 0, 0));
+        camera.setUpVector(new Vector3f(0, 0, 1));
+
+        SWRenderContext renderContext = new SWRenderContext();
+        renderContext.setSceneManager(sceneManager);
+        renderContext.setViewportSize(WIDTH, HEIGHT);
+
+        SWTexture.Filter[] filters = { SWTexture.Filter.BILINEAR,
+                SWTexture.Filter.TRILINEAR };
+        int[] angles = { 0, 30, 45, 60, 90 };
+
+        System.out.println("Texture " + image.getWidth() + "x"
+                + image.getHeight() + ", " + WIDTH + "x" + HEIGHT
+                + " pixels, ms per frame");
+        for (SWTexture.Filter filter : filters) {
+            texture.setFilter(filter);
+            System.out.print(filter);
+            for (int angle : angles) {
+                System.out.print("\t" + angle + "deg");
+            }
+            System.out.println();
+
+            for (SWTexture.Layout layout : SWTexture.Layout.values()) {
+                texture.setLayout(layout);
+                texture.update();
+                System.out.print(layout);
+                for (int angle : angles) {
+                    Matrix4f t = new Matrix4f();
+                    t.rotZ((float) Math.toRadians(angle));
+                    plane.setTransformation(t);
+
+                    // Warm up, then measure
+                    for (int i = 0; i < FRAMES / 2; i++) {
+                        renderContext.display();
+                    }
+                    long start = System.nanoTime();
+                    for (int i = 0; i < FRAMES; i++) {
+                        renderContext.display();
+                    }
+                    long time = System.nanoTime() - start;
+                    System.out.printf("\t%.2f", time / 1e6 / FRAMES);
+                }
+                System.out.println();
+            }
+        }
+        System.exit(0);
+    }
+
+    private static BufferedImage noise(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height,
+                BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(0);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, random.nextInt());
+            }
+        }
+        return image;
+    }
+
+    private static Shape xPlane() {
+        float[] element = { -50, -50, 0, 50, -50, 0, 50, 50, 0, -50, 50, 0 };
+
+        // Repeat the texture four times in each direction
+        float[] texCoords = { 0, 0, 4, 0, 4, 4, 0, 4 };
+
+        int[] indices = { 0, 2, 3, 0, 1, 2 };
+
+        VertexData vertexData = new VertexData(4);
+        vertexData.addElement(texCoords, VertexData.Semantic.TEXCOORD, 2);
+        vertexData.addElement(element, VertexData.Semantic.POSITION, 3);
+        vertexData.addIndices(indices);
+
+        return new Shape(vertexData);
+    }
+}
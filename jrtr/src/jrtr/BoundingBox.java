@@ -0,0 +1,152 @@
+package jrtr;
+
+import javax.vecmath.Matrix4f;
+
+/**
+ * An axis aligned bounding box. A box is empty if its minimum is larger than
+ * its maximum, which is the case after construction.
+ */
+public class BoundingBox {
+
+	public float minX, minY, minZ, maxX, maxY, maxZ;
+
+	public BoundingBox() {
+		setEmpty();
+	}
+
+	public void setEmpty() {
+		minX = minY = minZ = Float.POSITIVE_INFINITY;
+		maxX = maxY = maxZ = Float.NEGATIVE_INFINITY;
+	}
+
+	public boolean isEmpty() {
+		return minX > maxX || minY > maxY || minZ > maxZ;
+	}
+
+	public void set(BoundingBox b) {
+		minX = b.minX;
+		minY = b.minY;
+		minZ = b.minZ;
+		maxX = b.maxX;
+		maxY = b.maxY;
+		maxZ = b.maxZ;
+	}
+
+	/**
+	 * Grow the box to contain a point.
+	 */
+	public void include(float x, float y, float z) {
+		minX = Math.min(minX, x);
+		minY = Math.min(minY, y);
+		minZ = Math.min(minZ, z);
+		maxX = Math.max(maxX, x);
+		maxY = Math.max(maxY, y);
+		maxZ = Math.max(maxZ, z);
+	}
+
+	/**
+	 * Grow the box to contain another box.
+	 */
+	public void include(BoundingBox b) {
+		if (b.isEmpty())
+			return;
+		include(b.minX, b.minY, b.minZ);
+		include(b.maxX, b.maxY, b.maxZ);
+	}
+
+	/**
+	 * Set this box to the bounding box of another box transformed by an
+	 * affine transformation (Arvo, "Transforming Axis-Aligned Bounding
+	 * Boxes", Graphics Gems, 1990).
+	 */
+	public void transform(BoundingBox b, Matrix4f m) {
+		if (b.isEmpty()) {
+			setEmpty();
+			return;
+		}
+		float bMinX = b.minX, bMinY = b.minY, bMinZ = b.minZ;
+		float bMaxX = b.maxX, bMaxY = b.maxY, bMaxZ = b.maxZ;
+
+		minX = maxX = m.m03;
+		minY = maxY = m.m13;
+		minZ = maxZ = m.m23;
+
+		float e = m.m00 * bMinX, f = m.m00 * bMaxX;
+		minX += Math.min(e, f);
+		maxX += Math.max(e, f);
+		e = m.m01 * bMinY;
+		f = m.m01 * bMaxY;
+		minX += Math.min(e, f);
+		maxX += Math.max(e, f);
+		e = m.m02 * bMinZ;
+		f = m.m02 * bMaxZ;
+		minX += Math.min(e, f);
+		maxX += Math.max(e, f);
+
+		e = m.m10 * bMinX;
+		f = m.m10 * bMaxX;
+		minY += Math.min(e, f);
+		maxY += Math.max(e, f);
+		e = m.m11 * bMinY;
+		f = m.m11 * bMaxY;
+		minY += Math.min(e, f);
+		maxY += Math.max(e, f);
+		e = m.m12 * bMinZ;
+		f = m.m12 * bMaxZ;
+		minY += Math.min(e, f);
+		maxY += Math.max(e, f);
+
+		e = m.m20 * bMinX;
+		f = m.m20 * bMaxX;
+		minZ += Math.min(e, f);
+		maxZ += Math.max(e, f);
+		e = m.m21 * bMinY;
+		f = m.m21 * bMaxY;
+		minZ += Math.min(e, f);
+		maxZ += Math.max(e, f);
+		e = m.m22 * bMinZ;
+		f = m.m22 * bMaxZ;
+		minZ += Math.min(e, f);
+		maxZ += Math.max(e, f);
+	}
+
+	/**
+	 * Test the box against a set of planes, as returned by
+	 * {@link Frustum#extractPlanes(Matrix4f, float[])}. Only the planes
+	 * whose bit is set in the mask are tested.
+	 *
+	 * @param planes
+	 *            four coefficients (a,b,c,d) per plane; a point is inside if
+	 *            ax+by+cz+d >= 0
+	 * @param mask
+	 *            bit i is set if plane i needs to be tested
+	 * @return -1 if the box is outside of one of the planes, otherwise the
+	 *         mask of the planes that the box intersects; 0 means the box is
+	 *         completely inside all planes
+	 */
+	public int classify(float[] planes, int mask) {
+		if (isEmpty())
+			return -1;
+
+		for (int i = 0, bit = 1; bit <= mask; i += 4, bit <<= 1) {
+			if ((mask & bit) == 0)
+				continue;
+			float a = planes[i], b = planes[i + 1], c = planes[i + 2], d = planes[i + 3];
+
+			// The corner farthest along the plane normal
+			float far = d + (a > 0 ? a * maxX : a * minX)
+					+ (b > 0 ? b * maxY : b * minY)
+					+ (c > 0 ? c * maxZ : c * minZ);
+			if (far < 0)
+				return -1;
+
+			// The corner farthest against the plane normal
+			float near = d + (a > 0 ? a * minX : a * maxX)
+					+ (b > 0 ? b * minY : b * maxY)
+					+ (c > 0 ? c * minZ : c * maxZ);
+			if (near >= 0)
+				mask &= ~bit;
+		}
+		return mask;
+	}
+}
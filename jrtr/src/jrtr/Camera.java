@@ -39,6 +39,20 @@ public class Camera {
 		return cameraMatrix;
 	}
 
+	/**
+	 * Compute the planes of the view volume seen through the camera in world
+	 * space. See {@link Frustum#extractPlanes(Matrix4f, float[])} for the
+	 * layout of the planes.
+	 * 
+	 * @param frustum
+	 *            the viewing frustum
+	 * @param planes
+	 *            receives 4 coefficients for each of the 6 planes
+	 */
+	public void getFrustumPlanes(Frustum frustum, float[] planes) {
+		frustum.getPlanes(cameraMatrix, planes);
+	}
+
 	public Vector3f getCenterOfProjection() {
 		return centerOfProjection;
 	}
@@ -0,0 +1,307 @@
+package jrtr;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.ListIterator;
+
+import javax.vecmath.Matrix4f;
+
+/**
+ * Stores the positions, normals and texture coordinates of a
+ * {@link VertexData} in quantized form, using less than half of the memory
+ * of 32 bit floats:
+ * <ul>
+ * <li>Positions are half floats in [-1,1] with a uniform scale and a bias
+ * per mesh, i.e., position = bias + scale * h. A fourth component of 1 is
+ * stored, so each position takes 8 bytes.</li>
+ * <li>Normals are packed into 10-10-10-2 signed normalized integers (the
+ * OpenGL type GL_INT_2_10_10_10_REV), 4 bytes per normal.</li>
+ * <li>Texture coordinates are 16 bit unsigned normalized integers with a
+ * scale and bias per mesh. They are stored with an offset of -32768 in
+ * signed shorts; the offset is part of the bias.</li>
+ * </ul>
+ * The data is kept in direct buffers in native byte order, so OpenGL can
+ * read the positions and normals without conversion. The software renderer
+ * decodes it on the fly.
+ *
+ * @see VertexData#compact()
+ */
+public class CompactVertexData {
+
+	private int n;
+	private ShortBuffer positions, texCoords;
+	private IntBuffer normals;
+	private float[] positionScale, positionBias, boundsMin, boundsMax;
+	private float[] texCoordScale, texCoordBias;
+
+	// Float values of all half floats
+	private static final float[] HALF_TO_FLOAT = new float[1 << 16];
+
+	static {
+		for (int i = 0; i < HALF_TO_FLOAT.length; i++) {
+			HALF_TO_FLOAT[i] = decodeHalf(i);
+		}
+	}
+
+	/**
+	 * Quantize the position, normal and texture coordinate elements of
+	 * vertex data. Elements that are missing are not stored.
+	 */
+	public CompactVertexData(VertexData vertexData) {
+		n = vertexData.getNumberOfVertices();
+		positionScale = new float[3];
+		positionBias = new float[3];
+		boundsMin = new float[3];
+		boundsMax = new float[3];
+		texCoordScale = new float[2];
+		texCoordBias = new float[2];
+
+		ListIterator<VertexData.VertexElement> itr = vertexData.getElements()
+				.listIterator(0);
+		while (itr.hasNext()) {
+			VertexData.VertexElement e = itr.next();
+			int c = e.getNumberOfComponents();
+			if (e.getSemantic() == VertexData.Semantic.POSITION
+					&& positions == null) {
+				encodePositions(e.getData(), c);
+			} else if (e.getSemantic() == VertexData.Semantic.NORMAL && c >= 3
+					&& normals == null) {
+				encodeNormals(e.getData(), c);
+			} else if (e.getSemantic() == VertexData.Semantic.TEXCOORD
+					&& c >= 2 && texCoords == null) {
+				encodeTexCoords(e.getData(), c);
+			}
+		}
+	}
+
+	private void encodePositions(float[] p, int c) {
+		float[] min = { Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY,
+				Float.POSITIVE_INFINITY };
+		float[] max = { Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY,
+				Float.NEGATIVE_INFINITY };
+		for (int i = 0; i < n; i++) {
+			for (int k = 0; k < 3; k++) {
+				float f = k < c ? p[i * c + k] : 0;
+				min[k] = Math.min(min[k], f);
+				max[k] = Math.max(max[k], f);
+			}
+		}
+		// The scale is the same for all axes, so decoding the positions does
+		// not change the direction of normals
+		float scale = 0;
+		for (int k = 0; k < 3; k++) {
+			positionBias[k] = n > 0 ? (min[k] + max[k]) / 2 : 0;
+			scale = Math.max(scale, n > 0 ? (max[k] - min[k]) / 2 : 0);
+			boundsMin[k] = min[k];
+			boundsMax[k] = max[k];
+		}
+		for (int k = 0; k < 3; k++) {
+			positionScale[k] = scale;
+		}
+
+		positions = allocate(2 * 4 * n).asShortBuffer();
+		short one = toHalf(1);
+		for (int i = 0; i < n; i++) {
+			for (int k = 0; k < 3; k++) {
+				float f = k < c ? p[i * c + k] : 0;
+				float s = positionScale[k];
+				positions.put(4 * i + k, toHalf(s > 0 ? (f - positionBias[k])
+						/ s : 0));
+			}
+			positions.put(4 * i + 3, one);
+		}
+	}
+
+	private void encodeNormals(float[] d, int c) {
+		normals = allocate(4 * n).asIntBuffer();
+		for (int i = 0; i < n; i++) {
+			normals.put(i, packNormal(d[i * c], d[i * c + 1], d[i * c + 2]));
+		}
+	}
+
+	private void encodeTexCoords(float[] d, int c) {
+		for (int k = 0; k < 2; k++) {
+			float min = Float.POSITIVE_INFINITY, max = Float.NEGATIVE_INFINITY;
+			for (int i = 0; i < n; i++) {
+				min = Math.min(min, d[i * c + k]);
+				max = Math.max(max, d[i * c + k]);
+			}
+			if (n == 0)
+				min = max = 0;
+			texCoordScale[k] = (max - min) / 65535;
+			texCoordBias[k] = min + 32768 * texCoordScale[k];
+		}
+
+		texCoords = allocate(2 * 2 * n).asShortBuffer();
+		for (int i = 0; i < n; i++) {
+			for (int k = 0; k < 2; k++) {
+				float s = texCoordScale[k];
+				int q = s > 0 ? Math.round((d[i * c + k] - texCoordBias[k])
+						/ s) : 0;
+				q = Math.max(-32768, Math.min(32767, q));
+				texCoords.put(2 * i + k, (short) q);
+			}
+		}
+	}
+
+	private static ByteBuffer allocate(int size) {
+		return ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+	}
+
+	public int getNumberOfVertices() {
+		return n;
+	}
+
+	public boolean hasPositions() {
+		return positions != null;
+	}
+
+	public boolean hasNormals() {
+		return normals != null;
+	}
+
+	public boolean hasTexCoords() {
+		return texCoords != null;
+	}
+
+	/**
+	 * @return four half floats per vertex, or null
+	 */
+	public ShortBuffer getPositions() {
+		return positions;
+	}
+
+	/**
+	 * @return one packed 10-10-10-2 normal per vertex, or null
+	 */
+	public IntBuffer getNormals() {
+		return normals;
+	}
+
+	/**
+	 * @return two quantized texture coordinates per vertex, or null
+	 */
+	public ShortBuffer getTexCoords() {
+		return texCoords;
+	}
+
+	/**
+	 * Decode a component of a position.
+	 */
+	public float getPosition(int vertex, int component) {
+		return positionBias[component] + positionScale[component]
+				* fromHalf(positions.get(4 * vertex + component));
+	}
+
+	/**
+	 * Decode a component of a normal.
+	 */
+	public float getNormal(int vertex, int component) {
+		return unpackNormal(normals.get(vertex), component);
+	}
+
+	/**
+	 * Decode a component of a texture coordinate.
+	 */
+	public float getTexCoord(int vertex, int component) {
+		return texCoordBias[component] + texCoordScale[component]
+				* texCoords.get(2 * vertex + component);
+	}
+
+	/**
+	 * Set a matrix to the transformation that decodes the stored positions,
+	 * which can be multiplied with the modelview matrix.
+	 */
+	public void getPositionMatrix(Matrix4f m) {
+		m.setZero();
+		m.m00 = positionScale[0];
+		m.m11 = positionScale[1];
+		m.m22 = positionScale[2];
+		m.m03 = positionBias[0];
+		m.m13 = positionBias[1];
+		m.m23 = positionBias[2];
+		m.m33 = 1;
+	}
+
+	/**
+	 * Set a box to the bounds of the positions before quantization.
+	 */
+	public void getBounds(BoundingBox b) {
+		b.setEmpty();
+		if (positions == null || n == 0)
+			return;
+		b.include(boundsMin[0], boundsMin[1], boundsMin[2]);
+		b.include(boundsMax[0], boundsMax[1], boundsMax[2]);
+	}
+
+	/**
+	 * Convert a float to a half float, rounding to nearest. Values that are
+	 * too small are flushed to zero, values that are too large become
+	 * infinity.
+	 */
+	public static short toHalf(float f) {
+		int bits = Float.floatToIntBits(f);
+		int sign = (bits >>> 16) & 0x8000;
+		int exponent = ((bits >>> 23) & 0xff) - 127 + 15;
+		int mantissa = bits & 0x7fffff;
+
+		if (exponent <= 0)
+			return (short) sign;
+		if (exponent >= 31)
+			return (short) (sign | 0x7c00);
+
+		// Round, carrying into the exponent if necessary
+		int h = (exponent << 10) | (mantissa >> 13);
+		h += (mantissa >> 12) & 1;
+		return (short) (sign | Math.min(h, 0x7c00));
+	}
+
+	/**
+	 * Convert a half float to a float.
+	 */
+	public static float fromHalf(short h) {
+		return HALF_TO_FLOAT[h & 0xffff];
+	}
+
+	private static float decodeHalf(int h) {
+		int sign = (h & 0x8000) << 16;
+		int exponent = (h >> 10) & 0x1f;
+		int mantissa = h & 0x3ff;
+		float f;
+		if (exponent == 0) {
+			f = mantissa * (1.f / (1 << 24));
+		} else if (exponent == 31) {
+			f = mantissa == 0 ? Float.POSITIVE_INFINITY : Float.NaN;
+		} else {
+			f = Float.intBitsToFloat(((exponent - 15 + 127) << 23)
+					| (mantissa << 13));
+		}
+		return sign != 0 ? -f : f;
+	}
+
+	/**
+	 * Pack a normal into 10 bit signed normalized components, x in the
+	 * lowest bits.
+	 */
+	public static int packNormal(float x, float y, float z) {
+		return snorm10(x) | (snorm10(y) << 10) | (snorm10(z) << 20);
+	}
+
+	private static int snorm10(float f) {
+		f = Math.max(-1, Math.min(1, f));
+		return Math.round(f * 511) & 0x3ff;
+	}
+
+	/**
+	 * Unpack a component of a normal packed by
+	 * {@link #packNormal(float, float, float)}.
+	 */
+	public static float unpackNormal(int packed, int component) {
+		// Move the component to the top bits, then shift it back with sign
+		// extension
+		int v = (packed << (22 - 10 * component)) >> 22;
+		return Math.max(-1, v / 511.f);
+	}
+}
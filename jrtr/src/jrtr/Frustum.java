@@ -15,6 +15,7 @@ import javax.vecmath.Matrix4f;
 public class Frustum {
 
     private Matrix4f projectionMatrix;
+    private Matrix4f viewProjection = new Matrix4f();
     private float nearPlane, farPlane, aspectRatio, vertFOV;
 
     /**
@@ -42,6 +43,53 @@ public class Frustum {
         return projectionMatrix;
     }
 
+    /**
+     * Compute the six planes of the view volume in world space, see
+     * {@link #extractPlanes(Matrix4f, float[])}.
+     * 
+     * @param cameraMatrix the world-to-camera transform
+     * @param planes receives 4 coefficients for each of the 6 planes
+     */
+    public void getPlanes(Matrix4f cameraMatrix, float[] planes) {
+        viewProjection.mul(projectionMatrix, cameraMatrix);
+        extractPlanes(viewProjection, planes);
+    }
+
+    /**
+     * Extract the planes of the view volume from a projection matrix (Gribb
+     * and Hartmann, "Fast Extraction of Viewing Frustum Planes from the
+     * World-View-Projection Matrix", 2001). The planes are in the space that
+     * the matrix transforms from; for projection times camera matrix this is
+     * world space. The planes are stored in the order left, right, bottom,
+     * top, near, far. Each plane is given by normalized coefficients
+     * (a,b,c,d), and a point (x,y,z) is inside of it if ax+by+cz+d >= 0.
+     * 
+     * @param m the projection matrix
+     * @param planes receives 4 coefficients for each of the 6 planes
+     */
+    public static void extractPlanes(Matrix4f m, float[] planes) {
+        for (int i = 0; i < 6; i++) {
+            // Plane i is row 3 plus or minus row i/2
+            float s = (i & 1) == 0 ? 1 : -1;
+            int row = i / 2;
+            float a = m.m30 + s * m.getElement(row, 0);
+            float b = m.m31 + s * m.getElement(row, 1);
+            float c = m.m32 + s * m.getElement(row, 2);
+            float d = m.m33 + s * m.getElement(row, 3);
+            float l = (float) Math.sqrt(a * a + b * b + c * c);
+            if (l > 0) {
+                a /= l;
+                b /= l;
+                c /= l;
+                d /= l;
+            }
+            planes[4 * i] = a;
+            planes[4 * i + 1] = b;
+            planes[4 * i + 2] = c;
+            planes[4 * i + 3] = d;
+        }
+    }
+
     public float getNearPlane() {
         return nearPlane;
     }
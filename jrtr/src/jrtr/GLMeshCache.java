@@ -0,0 +1,324 @@
+package jrtr;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.Buffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.ListIterator;
+import java.util.WeakHashMap;
+
+import javax.media.opengl.GL2;
+import javax.media.opengl.GLContext;
+
+import com.jogamp.common.nio.Buffers;
+
+/**
+ * Keeps the {@link VertexData} of shapes in OpenGL buffer objects. The vertex
+ * data is uploaded once when it is first drawn: each vertex element goes to
+ * its own vertex buffer object, and the indices go to an index buffer object.
+ * If the vertex data has an {@link InterleavedVertexData} buffer, it is
+ * uploaded as it is into a single vertex buffer object instead. The
+ * positions of {@link CompactVertexData} are uploaded as half floats, and
+ * its normals in the packed 10-10-10-2 format if OpenGL can read it (OpenGL
+ * 3.3 or ARB_vertex_type_2_10_10_10_rev); otherwise the normals are decoded
+ * to floats. Texture coordinates are always decoded to floats, since the
+ * fixed function texture coordinate array cannot read normalized integers,
+ * and shaders do not apply the texture matrix that could rescale them.
+ * Indices are uploaded as unsigned shorts if there are at most 65536
+ * vertices. The data is uploaded again if it changed (see
+ * {@link VertexData#getVersion()}).
+ * <p>
+ * The cache only holds weak references to the vertex data. When the vertex
+ * data is garbage collected because no shape uses it anymore, its buffers
+ * are deleted the next time {@link #releaseUnused()} is called, which has to
+ * happen on the OpenGL thread.
+ */
+public class GLMeshCache {
+
+	/**
+	 * The buffer objects of a vertex data.
+	 */
+	private static class Mesh extends WeakReference<VertexData> {
+
+		// The vertex buffer objects, followed by the index buffer
+		int[] buffers;
+
+		// Per attribute: the buffer that stores it, its OpenGL type, and its
+		// stride and offset in bytes
+		VertexData.Semantic[] semantics;
+		int[] nComponents, attributeBuffers, types, strides, offsets;
+		int nAttributes;
+		int nIndices, indexType;
+		int version;
+
+		Mesh(VertexData vertexData, ReferenceQueue<VertexData> queue) {
+			super(vertexData, queue);
+		}
+	}
+
+	private GL2 gl;
+	private boolean packedNormals;
+	private WeakHashMap<VertexData, Mesh> meshes;
+	private HashSet<Mesh> live;
+	private ReferenceQueue<VertexData> released;
+
+	public GLMeshCache(GL2 gl) {
+		setGL(gl);
+		meshes = new WeakHashMap<VertexData, Mesh>();
+		live = new HashSet<Mesh>();
+		released = new ReferenceQueue<VertexData>();
+	}
+
+	/**
+	 * Set the OpenGL context, which may change from frame to frame.
+	 */
+	public void setGL(GL2 gl) {
+		this.gl = gl;
+		GLContext context = gl.getContext();
+		int major = context.getGLVersionMajor();
+		int minor = context.getGLVersionMinor();
+		packedNormals = major > 3 || (major == 3 && minor >= 3)
+				|| gl.isExtensionAvailable("GL_ARB_vertex_type_2_10_10_10_rev");
+	}
+
+	/**
+	 * @return the number of vertex data objects that are kept in buffers
+	 */
+	public int size() {
+		return live.size();
+	}
+
+	/**
+	 * Draw vertex data from its buffer objects, uploading it first if
+	 * necessary. The vertex elements are bound to the fixed function vertex
+	 * arrays, so they are available to shaders as gl_Vertex, gl_Normal,
+	 * gl_Color and gl_MultiTexCoord0.
+	 */
+	public void draw(VertexData vertexData) {
+		Mesh mesh = meshes.get(vertexData);
+		if (mesh == null || mesh.version != vertexData.getVersion()) {
+			if (mesh != null)
+				release(mesh);
+			mesh = upload(vertexData);
+		}
+
+		for (int i = 0; i < mesh.nAttributes; i++) {
+			gl.glBindBuffer(GL2.GL_ARRAY_BUFFER,
+					mesh.buffers[mesh.attributeBuffers[i]]);
+			int c = mesh.nComponents[i];
+			int type = mesh.types[i];
+			int stride = mesh.strides[i];
+			long offset = mesh.offsets[i];
+			switch (mesh.semantics[i]) {
+			case POSITION:
+				gl.glEnableClientState(GL2.GL_VERTEX_ARRAY);
+				gl.glVertexPointer(c, type, stride, offset);
+				break;
+			case NORMAL:
+				gl.glEnableClientState(GL2.GL_NORMAL_ARRAY);
+				gl.glNormalPointer(type, stride, offset);
+				break;
+			case COLOR:
+				gl.glEnableClientState(GL2.GL_COLOR_ARRAY);
+				gl.glColorPointer(c, type, stride, offset);
+				break;
+			case TEXCOORD:
+				gl.glEnableClientState(GL2.GL_TEXTURE_COORD_ARRAY);
+				gl.glTexCoordPointer(c, type, stride, offset);
+				break;
+			}
+		}
+
+		gl.glBindBuffer(GL2.GL_ELEMENT_ARRAY_BUFFER,
+				mesh.buffers[mesh.buffers.length - 1]);
+		gl.glDrawElements(GL2.GL_TRIANGLES, mesh.nIndices, mesh.indexType, 0);
+
+		gl.glBindBuffer(GL2.GL_ELEMENT_ARRAY_BUFFER, 0);
+		gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, 0);
+		gl.glDisableClientState(GL2.GL_VERTEX_ARRAY);
+		gl.glDisableClientState(GL2.GL_NORMAL_ARRAY);
+		gl.glDisableClientState(GL2.GL_COLOR_ARRAY);
+		gl.glDisableClientState(GL2.GL_TEXTURE_COORD_ARRAY);
+	}
+
+	/**
+	 * Delete the buffers of vertex data, for example when the shape that
+	 * uses it is removed from the scene.
+	 */
+	public void release(VertexData vertexData) {
+		Mesh mesh = meshes.remove(vertexData);
+		if (mesh != null)
+			release(mesh);
+	}
+
+	/**
+	 * Delete the buffers of vertex data that has been garbage collected.
+	 */
+	public void releaseUnused() {
+		Mesh mesh;
+		while ((mesh = (Mesh) released.poll()) != null) {
+			release(mesh);
+		}
+	}
+
+	private void release(Mesh mesh) {
+		if (live.remove(mesh)) {
+			gl.glDeleteBuffers(mesh.buffers.length, mesh.buffers, 0);
+		}
+	}
+
+	private Mesh upload(VertexData vertexData) {
+		LinkedList<VertexData.VertexElement> vertexElements = vertexData
+				.getElements();
+		InterleavedVertexData interleaved = vertexData.getInterleaved();
+		CompactVertexData compact = vertexData.getCompact();
+		int[] indices = vertexData.getIndices();
+		short[] shortIndices = vertexData.getShortIndices();
+
+		Mesh mesh = new Mesh(vertexData, released);
+		int n = vertexElements.size() + 3;
+		mesh.semantics = new VertexData.Semantic[n];
+		mesh.nComponents = new int[n];
+		mesh.attributeBuffers = new int[n];
+		mesh.types = new int[n];
+		mesh.strides = new int[n];
+		mesh.offsets = new int[n];
+		mesh.nIndices = vertexData.getIndexCount();
+		mesh.version = vertexData.getVersion();
+		mesh.buffers = new int[n + 2];
+		gl.glGenBuffers(mesh.buffers.length, mesh.buffers, 0);
+
+		// The interleaved buffer holds several attributes
+		int buffer = 0;
+		if (interleaved != null) {
+			upload(GL2.GL_ARRAY_BUFFER, mesh.buffers[buffer],
+					interleaved.getByteBuffer());
+			buffer++;
+		}
+
+		// Elements that are not interleaved get a buffer object of their own
+		ListIterator<VertexData.VertexElement> itr = vertexElements
+				.listIterator(0);
+		while (itr.hasNext()) {
+			VertexData.VertexElement e = itr.next();
+			VertexData.Semantic s = e.getSemantic();
+			int c = e.getNumberOfComponents();
+			if (interleaved != null && interleaved.hasSemantic(s)) {
+				addAttribute(mesh, s, c, 0, GL2.GL_FLOAT,
+						4 * interleaved.getStride(), 4 * interleaved
+								.getOffset(s));
+			} else {
+				upload(GL2.GL_ARRAY_BUFFER, mesh.buffers[buffer], Buffers
+						.newDirectFloatBuffer(e.getData()));
+				addAttribute(mesh, s, c, buffer, GL2.GL_FLOAT, 4 * c, 0);
+				buffer++;
+			}
+		}
+
+		// Compact streams are uploaded in their own formats
+		if (compact != null && compact.hasPositions()) {
+			upload(GL2.GL_ARRAY_BUFFER, mesh.buffers[buffer], compact
+					.getPositions());
+			addAttribute(mesh, VertexData.Semantic.POSITION, 4, buffer,
+					GL2.GL_HALF_FLOAT, 8, 0);
+			buffer++;
+		}
+		if (compact != null && compact.hasNormals() && packedNormals) {
+			upload(GL2.GL_ARRAY_BUFFER, mesh.buffers[buffer], compact
+					.getNormals());
+			addAttribute(mesh, VertexData.Semantic.NORMAL, 4, buffer,
+					GL2.GL_INT_2_10_10_10_REV, 4, 0);
+			buffer++;
+		} else if (compact != null && compact.hasNormals()) {
+			upload(GL2.GL_ARRAY_BUFFER, mesh.buffers[buffer], decode(compact,
+					VertexData.Semantic.NORMAL, 3));
+			addAttribute(mesh, VertexData.Semantic.NORMAL, 3, buffer,
+					GL2.GL_FLOAT, 12, 0);
+			buffer++;
+		}
+		if (compact != null && compact.hasTexCoords()) {
+			upload(GL2.GL_ARRAY_BUFFER, mesh.buffers[buffer], decode(compact,
+					VertexData.Semantic.TEXCOORD, 2));
+			addAttribute(mesh, VertexData.Semantic.TEXCOORD, 2, buffer,
+					GL2.GL_FLOAT, 8, 0);
+			buffer++;
+		}
+
+		// 16 bit indices if possible
+		int ibo = mesh.buffers[mesh.buffers.length - 1];
+		if (shortIndices != null) {
+			upload(GL2.GL_ELEMENT_ARRAY_BUFFER, ibo, Buffers
+					.newDirectShortBuffer(shortIndices));
+			mesh.indexType = GL2.GL_UNSIGNED_SHORT;
+		} else if (vertexData.getNumberOfVertices() <= 1 << 16) {
+			ShortBuffer data = Buffers.newDirectShortBuffer(indices.length);
+			for (int i = 0; i < indices.length; i++) {
+				data.put(i, (short) indices[i]);
+			}
+			upload(GL2.GL_ELEMENT_ARRAY_BUFFER, ibo, data);
+			mesh.indexType = GL2.GL_UNSIGNED_SHORT;
+		} else {
+			upload(GL2.GL_ELEMENT_ARRAY_BUFFER, ibo, Buffers
+					.newDirectIntBuffer(indices));
+			mesh.indexType = GL2.GL_UNSIGNED_INT;
+		}
+
+		// Delete the buffer objects that were not needed
+		int unused = mesh.buffers.length - 1 - buffer;
+		if (unused > 0) {
+			gl.glDeleteBuffers(unused, mesh.buffers, buffer);
+			mesh.buffers[buffer] = ibo;
+			int[] b = new int[buffer + 1];
+			System.arraycopy(mesh.buffers, 0, b, 0, b.length);
+			mesh.buffers = b;
+		}
+
+		meshes.put(vertexData, mesh);
+		live.add(mesh);
+		return mesh;
+	}
+
+	/**
+	 * Decode the normals or texture coordinates of compact vertex data to
+	 * floats.
+	 */
+	private static FloatBuffer decode(CompactVertexData compact,
+			VertexData.Semantic semantic, int nComponents) {
+		int n = compact.getNumberOfVertices();
+		FloatBuffer data = Buffers.newDirectFloatBuffer(n * nComponents);
+		for (int i = 0; i < n; i++) {
+			for (int k = 0; k < nComponents; k++) {
+				data.put(i * nComponents + k,
+						semantic == VertexData.Semantic.NORMAL ? compact
+								.getNormal(i, k) : compact.getTexCoord(i, k));
+			}
+		}
+		return data;
+	}
+
+	private void addAttribute(Mesh mesh, VertexData.Semantic semantic,
+			int nComponents, int buffer, int type, int stride, int offset) {
+		int i = mesh.nAttributes++;
+		mesh.semantics[i] = semantic;
+		mesh.nComponents[i] = nComponents;
+		mesh.attributeBuffers[i] = buffer;
+		mesh.types[i] = type;
+		mesh.strides[i] = stride;
+		mesh.offsets[i] = offset;
+	}
+
+	private void upload(int target, int buffer, Buffer data) {
+		int size = data.capacity();
+		if (data instanceof FloatBuffer || data instanceof IntBuffer)
+			size *= 4;
+		else if (data instanceof ShortBuffer)
+			size *= 2;
+		gl.glBindBuffer(target, buffer);
+		gl.glBufferData(target, size, data, GL2.GL_STATIC_DRAW);
+		gl.glBindBuffer(target, 0);
+	}
+}
@@ -13,6 +13,8 @@ public class GLRenderContext implements RenderContext {
 
 	private SceneManagerInterface sceneManager;
 	private GL2 gl;
+	private GLMeshCache meshCache;
+	private boolean immediateMode;
 	
 	/**
 	 * This constructor is called by {@link GLRenderPanel}.
@@ -25,6 +27,32 @@ public class GLRenderContext implements RenderContext {
 		gl = drawable.getGL().getGL2();
 		gl.glEnable(GL2.GL_DEPTH_TEST);
         gl.glClearColor(0.0f, 0.0f, 0.0f, 0.0f);
+        meshCache = new GLMeshCache(gl);
+	}
+
+	/**
+	 * Draw shapes in immediate mode, i.e., pass each vertex to OpenGL in
+	 * every frame, instead of drawing them from buffer objects that are
+	 * uploaded once. This is slow and only meant for comparison.
+	 */
+	public void setImmediateMode(boolean immediateMode)
+	{
+		this.immediateMode = immediateMode;
+	}
+	
+	public boolean isImmediateMode()
+	{
+		return immediateMode;
+	}
+	
+	/**
+	 * Delete the buffer objects of a shape that will not be drawn anymore.
+	 * This is optional; the buffers of shapes that are garbage collected
+	 * are deleted automatically.
+	 */
+	public void release(Shape shape)
+	{
+		meshCache.release(shape.getVertexData());
 	}
 
 		
@@ -46,6 +74,7 @@ public class GLRenderContext implements RenderContext {
 	public void display(GLAutoDrawable drawable)
 	{
 		gl = drawable.getGL().getGL2();
+		meshCache.setGL(gl);
 		
 		beginFrame();
 		
@@ -64,6 +93,7 @@ public class GLRenderContext implements RenderContext {
 	 */
 	private void beginFrame()
 	{
+		meshCache.releaseUnused();
 		setLights();
 		
         gl.glClear(GL2.GL_COLOR_BUFFER_BIT);
@@ -102,14 +132,12 @@ public class GLRenderContext implements RenderContext {
 	private void draw(RenderItem renderItem)
 	{
 		VertexData vertexData = renderItem.getShape().getVertexData();
-		LinkedList<VertexData.VertexElement> vertexElements = vertexData.getElements();
-		int indices[] = vertexData.getIndices();
-
 		// Don't draw if there are no indices
-		if(indices == null) return;
+		if(vertexData.getIndexCount() == 0) return;
 		
 		// Set the material
 		setMaterial(renderItem.getShape().getMaterial());
+		setCullMode(renderItem.getShape().getMaterial());
 
 		// Set the modelview matrix by multiplying the camera matrix and the 
 		// transformation matrix of the object
@@ -117,13 +145,50 @@ public class GLRenderContext implements RenderContext {
 		Matrix4f t = new Matrix4f();
 		t.set(sceneManager.getCamera().getCameraMatrix());
 		t.mul(renderItem.getT());
+		CompactVertexData compact = vertexData.getCompact();
+		if(compact != null && compact.hasPositions() && !immediateMode)
+		{
+			// Decode the quantized positions. The scale is uniform, so
+			// normals only need to be rescaled.
+			Matrix4f d = new Matrix4f();
+			compact.getPositionMatrix(d);
+			t.mul(d);
+			gl.glEnable(GL2.GL_RESCALE_NORMAL);
+		}
 		gl.glLoadMatrixf(matrix4fToFloat16(t), 0);
 	     
         // Draw geometry
+		if(immediateMode)
+		{
+			drawImmediate(vertexData);
+		}
+		else
+		{
+			meshCache.draw(vertexData);
+		}
+		
+		if(compact != null && !immediateMode)
+		{
+			gl.glDisable(GL2.GL_RESCALE_NORMAL);
+		}
+        
+        cleanMaterial(renderItem.getShape().getMaterial());
+	}
+	
+	/**
+	 * Draw vertex data in immediate mode, one OpenGL call per vertex 
+	 * attribute. Compact vertex data is decoded on the fly.
+	 */
+	private void drawImmediate(VertexData vertexData)
+	{
+		LinkedList<VertexData.VertexElement> vertexElements = vertexData.getElements();
+		int count = vertexData.getIndexCount();
+		CompactVertexData compact = vertexData.getCompact();
+		
         gl.glBegin(GL2.GL_TRIANGLES);
-		for(int j=0; j<indices.length; j++)
+		for(int j=0; j<count; j++)
 		{
-			int i = indices[j];
+			int i = vertexData.getIndex(j);
 			
 			ListIterator<VertexData.VertexElement> itr = vertexElements.listIterator(0);
 			while(itr.hasNext())
@@ -184,10 +249,23 @@ public class GLRenderContext implements RenderContext {
 
 			}
 			
+			if(compact != null)
+			{
+				if(compact.hasNormals())
+				{
+					gl.glNormal3f(compact.getNormal(i, 0), compact.getNormal(i, 1), compact.getNormal(i, 2));
+				}
+				if(compact.hasTexCoords())
+				{
+					gl.glTexCoord2f(compact.getTexCoord(i, 0), compact.getTexCoord(i, 1));
+				}
+				if(compact.hasPositions())
+				{
+					gl.glVertex3f(compact.getPosition(i, 0), compact.getPosition(i, 1), compact.getPosition(i, 2));
+				}
+			}
 		}
         gl.glEnd();
-        
-        cleanMaterial(renderItem.getShape().getMaterial());
 	}
 
 	/**
@@ -236,6 +314,29 @@ public class GLRenderContext implements RenderContext {
 		}
 	}
 	
+	/**
+	 * Map the cull mode of the material to OpenGL face culling. Culling is 
+	 * disabled for shapes without a material.
+	 */
+	private void setCullMode(Material m)
+	{
+		Material.CullMode cullMode = m!=null ? m.cullMode : Material.CullMode.NONE;
+		if(cullMode == Material.CullMode.BACK)
+		{
+			gl.glEnable(GL2.GL_CULL_FACE);
+			gl.glCullFace(GL2.GL_BACK);
+		}
+		else if(cullMode == Material.CullMode.FRONT)
+		{
+			gl.glEnable(GL2.GL_CULL_FACE);
+			gl.glCullFace(GL2.GL_FRONT);
+		}
+		else
+		{
+			gl.glDisable(GL2.GL_CULL_FACE);
+		}
+	}
+	
 	/**
 	 * Pass the light properties to OpenGL. This assumes the list of lights in 
 	 * the scene manager is accessible via a method Iterator<Light> lightIterator().
@@ -244,8 +345,10 @@ public class GLRenderContext implements RenderContext {
 	{	
 		int lightIndex[] = {GL2.GL_LIGHT0, GL2.GL_LIGHT1, GL2.GL_LIGHT2, GL2.GL_LIGHT3, GL2.GL_LIGHT4, GL2.GL_LIGHT5, GL2.GL_LIGHT6, GL2.GL_LIGHT7};
 
+		// Light positions and directions are in world space, OpenGL
+		// transforms them by the modelview matrix
 		gl.glMatrixMode(GL2.GL_MODELVIEW);
-		gl.glLoadIdentity();
+		gl.glLoadMatrixf(matrix4fToFloat16(sceneManager.getCamera().getCameraMatrix()), 0);
 
 		Iterator<Light> iter = sceneManager.lightIterator();
 
@@ -1,27 +1,67 @@
-
-
 package jrtr;
 
+import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Stack;
 
-import javax.vecmath.Matrix3f;
 import javax.vecmath.Matrix4f;
-import javax.vecmath.Vector3f;
 
+/**
+ * A scene manager that stores the scene in a scene graph. The graph is
+ * traversed once per frame without recursion, using an explicit stack. The
+ * traversal fills a render queue with the shapes and collects the lights at
+ * the same time. Shapes outside of the view volume are culled using the
+ * bounding boxes of the subtrees of the scene graph. The stack, the queue
+ * and its {@link RenderItem}s are reused from frame to frame, so a
+ * traversal does not allocate memory once the arrays are large enough.
+ * <p>
+ * The traversal is started by the first call to {@link #iterator()} or
+ * {@link #lightIterator()} in a frame; the other method then returns the
+ * result of the same traversal. The iterators are only valid until the next
+ * traversal.
+ */
 public class GraphSceneManager implements SceneManagerInterface {
 
+    private static final Matrix4f IDENTITY = new Matrix4f(1, 0, 0, 0, 0, 1,
+            0, 0, 0, 0, 1, 0, 0, 0, 0, 1);
+
     private Node root;
     private Camera camera;
     private Frustum frustum;
-    private LinkedList<Light> lights;
+
+    private static final int ALL_PLANES = (1 << 6) - 1;
+
+    // States of the nodes on the stack of the update pass
+    private static final int PARENT_CHANGED = 1, VISITED = 2;
+
+    // Traversal stack: the nodes still to visit, the planes that they need
+    // to be tested against (or their state in the update pass), and the
+    // world transformations of their parents
+    private Node[] stack;
+    private int[] maskStack;
+    private Matrix4f[] parentStack;
+
+    private float[] planes;
+    private boolean culling;
+
+    // Render queue
+    private RenderItem[] queue;
+    private int queueSize;
+    private ArrayList<Light> lights;
+    private boolean shapesPending, lightsPending;
+    private GraphSceneIterator iterator;
 
     public GraphSceneManager() {
         this.camera = new Camera();
         this.frustum = new Frustum();
-        lights = new LinkedList<Light>();
+        stack = new Node[64];
+        maskStack = new int[64];
+        parentStack = new Matrix4f[64];
+        planes = new float[6 * 4];
+        culling = true;
+        queue = new RenderItem[64];
+        lights = new ArrayList<Light>();
+        iterator = new GraphSceneIterator();
     }
 
     @Override
@@ -36,12 +76,21 @@ public class GraphSceneManager implements SceneManagerInterface {
 
     @Override
     public SceneManagerIterator iterator() {
-        return new GraphSceneIterator(this, true);
+        if (!shapesPending) {
+            traverse();
+        }
+        shapesPending = false;
+        iterator.position = 0;
+        return iterator;
     }
 
     @Override
     public Iterator<Light> lightIterator() {
-        return new GraphSceneIterator(this, false).getLights().iterator();
+        if (!lightsPending) {
+            traverse();
+        }
+        lightsPending = false;
+        return lights.iterator();
     }
 
     public void setRoot(Node root) {
@@ -52,71 +101,202 @@ public class GraphSceneManager implements SceneManagerInterface {
         return this.root;
     }
 
-    private class GraphSceneIterator implements SceneManagerIterator {
+    /**
+     * Enable or disable view frustum culling. If enabled, which is the
+     * default, shapes whose bounding box lies outside of the view volume are
+     * not passed to the renderer.
+     */
+    public void setFrustumCulling(boolean culling) {
+        this.culling = culling;
+    }
 
-        private Node root;
-        private Stack<RenderItem> stack;
-        private List<Light> lights;
+    public boolean isFrustumCulling() {
+        return culling;
+    }
 
-        public GraphSceneIterator(GraphSceneManager manager, boolean shape) {
-            root = manager.getRoot();
-            stack = new Stack<RenderItem>();
-            lights = new LinkedList<Light>();
-            init(root, shape);
-        }
+    /**
+     * Traverse the scene graph depth first. Fills the render queue with the
+     * shapes that may be visible and collects the lights.
+     * <p>
+     * The bounding box of each subtree is tested against the planes of the
+     * view volume that its parent intersects. Subtrees outside of the view
+     * volume are skipped, except for the lights in them. In subtrees that
+     * are completely inside, nothing is tested anymore.
+     */
+    private void traverse() {
+        queueSize = 0;
+        lights.clear();
+        shapesPending = true;
+        lightsPending = true;
+        if (root == null)
+            return;
 
-        public List<Light> getLights() {
-            return lights;
-        }
+        update();
+        camera.getFrustumPlanes(frustum, planes);
+
+        int top = 0;
+        stack[0] = root;
+        maskStack[0] = culling ? ALL_PLANES : 0;
+        top++;
+
+        while (top > 0) {
+            top--;
+            Node node = stack[top];
+            int mask = maskStack[top];
+            stack[top] = null;
+            NodeTransformation transformation = node.getNodeTransformation();
+
+            // A negative mask means the node is not visible, and it is only
+            // visited for its lights
+            if (mask > 0) {
+                mask = transformation.getBounds().classify(planes, mask);
+            }
+            if (mask < 0 && !transformation.hasLights())
+                continue;
+
+            Shape shape = node.getShape();
+            if (shape != null && mask >= 0) {
+                enqueue(shape, transformation.getWorld());
+            }
+            if (node instanceof LightNode) {
+                Light light = ((LightNode) node).getWorldLight();
+                if (light != null) {
+                    lights.add(light);
+                }
+            }
 
-        private void init(Node node, boolean shape) {
-            if (shape) {
-                if (node.getShape() != null) {
-                    stack.push(new RenderItem(node.getShape(), node
-                            .getTransformationMatrix()));
+            List<Node> children = node.getChildren();
+            if (children != null) {
+                int n = children.size();
+                if (top + n > stack.length) {
+                    growStack(top + n);
                 }
-            } else {
-                if (node instanceof LightNode) {
-                    Vector3f pos = node.getLight().position;
-                    Matrix3f trans = new Matrix3f();
-                    Matrix4f oldTrans = node.getTransformationMatrix();
-                    trans
-                            .setColumn(0, oldTrans.m00, oldTrans.m10,
-                                    oldTrans.m20);
-                    trans
-                            .setColumn(1, oldTrans.m01, oldTrans.m11,
-                                    oldTrans.m21);
-                    trans
-                            .setColumn(2, oldTrans.m02, oldTrans.m12,
-                                    oldTrans.m22);
-
-                    trans.transform(pos);
-                    node.getLight().position = pos;
-                    lights.add(node.getLight());
+                // Push in reverse, so the children are visited in order
+                for (int i = n - 1; i >= 0; i--) {
+                    stack[top] = children.get(i);
+                    maskStack[top] = mask;
+                    top++;
                 }
             }
+        }
+    }
 
-            if (node.getChildren() != null) {
-                List<Node> children = node.getChildren();
+    /**
+     * Update the world transformations and bounding boxes that changed
+     * since the last traversal. Only the paths to the nodes that changed are
+     * visited. The bounding box of a group is updated after those of its
+     * children.
+     */
+    private void update() {
+        if (!root.getNodeTransformation().needsUpdate())
+            return;
 
-                for (Node child : children) {
-                    Matrix4f t = new Matrix4f(child.getTransformationMatrix());
-                    t.mul(node.getTransformationMatrix());
-                    child.setTransformationMatrix(t);
+        int top = 0;
+        stack[0] = root;
+        maskStack[0] = 0;
+        parentStack[0] = IDENTITY;
+        top++;
+
+        while (top > 0) {
+            top--;
+            Node node = stack[top];
+            int state = maskStack[top];
+            Matrix4f parentWorld = parentStack[top];
+            stack[top] = null;
+            parentStack[top] = null;
+            NodeTransformation transformation = node.getNodeTransformation();
+            List<Node> children = node.getChildren();
+
+            if (state == VISITED) {
+                // All children are up to date
+                BoundingBox bounds = transformation.getBounds();
+                boolean hasLights = false;
+                bounds.setEmpty();
+                for (int i = 0; i < children.size(); i++) {
+                    NodeTransformation child = children.get(i)
+                            .getNodeTransformation();
+                    bounds.include(child.getBounds());
+                    hasLights |= child.hasLights();
+                }
+                transformation.setHasLights(hasLights);
+                continue;
+            }
+
+            boolean changed = transformation.update(parentWorld,
+                    state == PARENT_CHANGED);
+            transformation.updated();
+
+            if (children == null) {
+                Shape shape = node.getShape();
+                if (shape != null) {
+                    transformation.getBounds().transform(shape.getBounds(),
+                            transformation.getWorld());
+                } else {
+                    transformation.getBounds().setEmpty();
+                }
+                transformation.setHasLights(node.getLight() != null);
+                continue;
+            }
 
-                    init(child, shape);
+            int n = children.size();
+            if (top + n + 1 > stack.length) {
+                growStack(top + n + 1);
+            }
+            stack[top] = node;
+            maskStack[top] = VISITED;
+            top++;
+            for (int i = n - 1; i >= 0; i--) {
+                Node child = children.get(i);
+                if (changed || child.getNodeTransformation().needsUpdate()) {
+                    stack[top] = child;
+                    maskStack[top] = changed ? PARENT_CHANGED : 0;
+                    parentStack[top] = transformation.getWorld();
+                    top++;
                 }
             }
         }
+    }
+
+    private void enqueue(Shape shape, Matrix4f t) {
+        if (queueSize == queue.length) {
+            RenderItem[] q = new RenderItem[2 * queue.length];
+            System.arraycopy(queue, 0, q, 0, queueSize);
+            queue = q;
+        }
+        RenderItem item = queue[queueSize];
+        if (item == null) {
+            queue[queueSize] = new RenderItem(shape, t);
+        } else {
+            item.set(shape, t);
+        }
+        queueSize++;
+    }
+
+    private void growStack(int size) {
+        int capacity = Math.max(size, 2 * stack.length);
+        Node[] s = new Node[capacity];
+        Matrix4f[] p = new Matrix4f[capacity];
+        int[] m = new int[capacity];
+        System.arraycopy(stack, 0, s, 0, stack.length);
+        System.arraycopy(parentStack, 0, p, 0, parentStack.length);
+        System.arraycopy(maskStack, 0, m, 0, maskStack.length);
+        stack = s;
+        parentStack = p;
+        maskStack = m;
+    }
+
+    private class GraphSceneIterator implements SceneManagerIterator {
+
+        private int position;
 
         @Override
         public boolean hasNext() {
-            return !stack.empty();
+            return position < queueSize;
         }
 
         @Override
         public RenderItem next() {
-            return stack.pop();
+            return queue[position++];
         }
 
     }
@@ -1,6 +1,6 @@
 package jrtr;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 
 import javax.vecmath.Matrix4f;
@@ -8,10 +8,12 @@ import javax.vecmath.Matrix4f;
 public abstract class Group implements Node {
 
     protected List<Node> children;
+    protected NodeTransformation transformation;
     
     public Group() {
         super();
-        children = new LinkedList<Node>();
+        children = new ArrayList<Node>();
+        transformation = new NodeTransformation();
     }
     
     @Override
@@ -40,12 +42,25 @@ public abstract class Group implements Node {
         return null;
     }
     
+    @Override
+    public Matrix4f getWorldTransformationMatrix() {
+        return this.transformation.getWorld();
+    }
+    
+    @Override
+    public NodeTransformation getNodeTransformation() {
+        return this.transformation;
+    }
+    
     public void addChild(Node child) {
         this.children.add(child);
+        child.getNodeTransformation().setParent(this.transformation);
     }
     
     public void removeChild(Node child) {
-        this.children.remove(child);
+        if (this.children.remove(child)) {
+            child.getNodeTransformation().setParent(null);
+        }
     }
 
 }
@@ -0,0 +1,136 @@
+package jrtr;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ListIterator;
+
+/**
+ * The vertex elements of a {@link VertexData} packed into one interleaved
+ * buffer: the attributes of a vertex are stored next to each other, followed
+ * by the attributes of the next vertex. The buffer is a direct buffer in
+ * native byte order, so it can be passed to OpenGL without copying.
+ * <p>
+ * Attribute c of semantic s of vertex i is at float index
+ * {@code i * getStride() + getOffset(s) + c}.
+ *
+ * @see VertexData#interleave(VertexData.Semantic...)
+ */
+public class InterleavedVertexData {
+
+	private ByteBuffer bytes;
+	private FloatBuffer floats;
+	private int n, stride;
+	private int[] offsets, components;
+
+	/**
+	 * Pack vertex elements.
+	 *
+	 * @param vertexData
+	 *            the vertex data
+	 * @param semantics
+	 *            the semantics of the elements to pack, in the order in which
+	 *            they are stored per vertex; semantics without an element
+	 *            are skipped
+	 */
+	public InterleavedVertexData(VertexData vertexData,
+			VertexData.Semantic... semantics) {
+		n = vertexData.getNumberOfVertices();
+		offsets = new int[VertexData.Semantic.values().length];
+		components = new int[offsets.length];
+		float[][] data = new float[offsets.length][];
+
+		for (int i = 0; i < offsets.length; i++) {
+			offsets[i] = -1;
+		}
+		for (VertexData.Semantic s : semantics) {
+			VertexData.VertexElement e = find(vertexData, s);
+			if (e == null || offsets[s.ordinal()] >= 0)
+				continue;
+			offsets[s.ordinal()] = stride;
+			components[s.ordinal()] = e.getNumberOfComponents();
+			data[s.ordinal()] = e.getData();
+			stride += e.getNumberOfComponents();
+		}
+
+		bytes = ByteBuffer.allocateDirect(4 * n * stride).order(
+				ByteOrder.nativeOrder());
+		floats = bytes.asFloatBuffer();
+		for (int s = 0; s < offsets.length; s++) {
+			if (offsets[s] < 0)
+				continue;
+			int c = components[s];
+			float[] d = data[s];
+			for (int i = 0; i < n; i++) {
+				for (int k = 0; k < c; k++) {
+					floats.put(i * stride + offsets[s] + k, d[i * c + k]);
+				}
+			}
+		}
+	}
+
+	private static VertexData.VertexElement find(VertexData vertexData,
+			VertexData.Semantic s) {
+		ListIterator<VertexData.VertexElement> itr = vertexData.getElements()
+				.listIterator(0);
+		while (itr.hasNext()) {
+			VertexData.VertexElement e = itr.next();
+			if (e.getSemantic() == s)
+				return e;
+		}
+		return null;
+	}
+
+	public int getNumberOfVertices() {
+		return n;
+	}
+
+	/**
+	 * @return the number of floats per vertex
+	 */
+	public int getStride() {
+		return stride;
+	}
+
+	/**
+	 * @return the offset of an attribute within a vertex in floats, or -1 if
+	 *         the attribute is not stored
+	 */
+	public int getOffset(VertexData.Semantic s) {
+		return offsets[s.ordinal()];
+	}
+
+	/**
+	 * @return the number of components of an attribute, or 0 if the
+	 *         attribute is not stored
+	 */
+	public int getNumberOfComponents(VertexData.Semantic s) {
+		return components[s.ordinal()];
+	}
+
+	public boolean hasSemantic(VertexData.Semantic s) {
+		return offsets[s.ordinal()] >= 0;
+	}
+
+	/**
+	 * @return the interleaved data as floats
+	 */
+	public FloatBuffer getFloatBuffer() {
+		return floats;
+	}
+
+	/**
+	 * @return the interleaved data as bytes, for example to upload it to
+	 *         OpenGL
+	 */
+	public ByteBuffer getByteBuffer() {
+		return bytes;
+	}
+
+	/**
+	 * Read a component of an attribute of a vertex.
+	 */
+	public float get(int vertex, VertexData.Semantic s, int component) {
+		return floats.get(vertex * stride + offsets[s.ordinal()] + component);
+	}
+}
@@ -6,7 +6,7 @@ import javax.vecmath.Matrix4f;
 
 public abstract class Leaf implements Node {
 
-    protected Matrix4f transformationMatrix;
+    protected NodeTransformation transformation = new NodeTransformation();
     
     @Override
     public List<Node> getChildren() {
@@ -18,12 +18,22 @@ public abstract class Leaf implements Node {
 
     @Override
     public Matrix4f getTransformationMatrix() {
-        return this.transformationMatrix;
+        return this.transformation.getLocal();
     }
     
     @Override
     public void setTransformationMatrix(Matrix4f t) {
-        this.transformationMatrix = t;
+        this.transformation.setLocal(t);
+    }
+    
+    @Override
+    public Matrix4f getWorldTransformationMatrix() {
+        return this.transformation.getWorld();
+    }
+    
+    @Override
+    public NodeTransformation getNodeTransformation() {
+        return this.transformation;
     }
         
 }
@@ -3,7 +3,8 @@ package jrtr;
 import javax.vecmath.*;
 
 /**
- * Stores the properties of a light source.
+ * Stores the properties of a light source. Positions and directions are in
+ * world space; the renderers transform them by the camera matrix.
  */
 public class Light {
 	
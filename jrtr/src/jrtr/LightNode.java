@@ -1,8 +1,11 @@
 package jrtr;
 
+import javax.vecmath.Matrix4f;
+
 public class LightNode extends Leaf {
 
     private Light light; 
+    private Light worldLight;
     
     public LightNode() {
         super();
@@ -24,6 +27,38 @@ public class LightNode extends Leaf {
     
     public void setLight(Light light) {
         this.light = light;
+        this.transformation.invalidate();
+    }
+    
+    /**
+     * Return a copy of the light in world space: the position is transformed
+     * as a point and the directions as vectors by the world transformation of
+     * the node. The light itself is not changed. The copy is reused, so it is
+     * only valid until the next call.
+     */
+    public Light getWorldLight() {
+        if (light == null)
+            return null;
+        if (worldLight == null)
+            worldLight = new Light();
+        
+        Matrix4f t = getWorldTransformationMatrix();
+        worldLight.type = light.type;
+        worldLight.position.set(light.position);
+        t.transform(worldLight.position);
+        worldLight.position.x += t.m03;
+        worldLight.position.y += t.m13;
+        worldLight.position.z += t.m23;
+        worldLight.direction.set(light.direction);
+        t.transform(worldLight.direction);
+        worldLight.spotDirection.set(light.spotDirection);
+        t.transform(worldLight.spotDirection);
+        worldLight.diffuse.set(light.diffuse);
+        worldLight.specular.set(light.specular);
+        worldLight.ambient.set(light.ambient);
+        worldLight.spotExponent = light.spotExponent;
+        worldLight.spotCutoff = light.spotCutoff;
+        return worldLight;
     }
 
 }
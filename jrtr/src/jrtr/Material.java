@@ -7,15 +7,28 @@ import javax.vecmath.*;
  */
 public class Material {
 
+	/**
+	 * Which faces are culled, i.e., not drawn. Front faces are the faces
+	 * whose vertices appear in counter-clockwise order on the screen. By
+	 * default no faces are culled, since the winding of hand-built geometry
+	 * is not necessarily consistent.
+	 */
+	public enum CullMode
+	{
+		NONE, BACK, FRONT
+	}
+
 	public Vector3f diffuse;
 	public Vector3f specular;
 	public Vector3f ambient;
 	public float shininess;
 	public Texture texture;
 	public Shader shader;
+	public CullMode cullMode;
 	
 	public Material()
 	{
+		cullMode = CullMode.NONE;
 		diffuse = new Vector3f(1.f, 1.f, 1.f);
 		specular = new Vector3f(1.f, 1.f, 1.f);
 		ambient = new Vector3f(1.f, 1.f, 1.f);
@@ -0,0 +1,307 @@
+package jrtr;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ListIterator;
+
+/**
+ * Reads and writes {@link VertexData} in a binary file format, which is used
+ * to cache meshes that are expensive to load, like large .obj files. The
+ * format is little endian and consists of:
+ * <ul>
+ * <li>A header: the magic number "JRMC", the format version, the length,
+ * modification time and hash of the source file, the scale the mesh was
+ * loaded with, the number of vertices, elements and indices, and the
+ * semantic and number of components of each element (all ints, longs and
+ * floats).</li>
+ * <li>The float data of each element, in the order of the header.</li>
+ * <li>The int indices.</li>
+ * </ul>
+ * Reading a file maps it into memory and copies the streams into the arrays
+ * of the vertex data with bulk gets, without parsing. The streams are not
+ * wrapped, because vertex elements are float arrays.
+ */
+public class MeshFile {
+
+	private static final int MAGIC = 0x434d524a; // "JRMC"
+
+	// The version is incremented whenever the format or the way meshes are
+	// made from their sources changes. Older files are then rejected, and
+	// their sources are parsed again.
+	// Version 2: faces with more than three vertices are triangulated by ear
+	// clipping instead of as fans.
+	private static final int VERSION = 2;
+	private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 8 + 4 + 4 + 4 + 4;
+	private static final int MODIFIED_OFFSET = 4 + 4 + 8;
+	private static final int WINDOW_SIZE = 1 << 28;
+
+	/**
+	 * Describes the source a mesh was loaded from. A cached mesh is valid if
+	 * it was made from a source with the same length, hash and scale.
+	 */
+	public static class Source {
+		public long length, modified;
+		public float scale;
+		private String fileName;
+		private long hash;
+		private boolean hashed;
+
+		/**
+		 * Describe a file. The hash is computed when it is needed.
+		 */
+		public Source(String fileName, float scale) {
+			File file = new File(fileName);
+			this.length = file.length();
+			this.modified = file.lastModified();
+			this.scale = scale;
+			this.fileName = fileName;
+		}
+
+		/**
+		 * @return the hash of the contents of the source file
+		 */
+		public long getHash() throws IOException {
+			if (!hashed) {
+				hash = hash(fileName);
+				hashed = true;
+			}
+			return hash;
+		}
+	}
+
+	/**
+	 * Write vertex data to a file. The file is first written under a
+	 * temporary name and then renamed, so that readers never see a partial
+	 * file.
+	 *
+	 * @param vertexData
+	 *            the vertex data; only its float elements and indices are
+	 *            stored, 16 bit indices as ints
+	 * @param fileName
+	 *            the file to write
+	 * @param source
+	 *            the source the vertex data was made from
+	 */
+	public static void write(VertexData vertexData, String fileName,
+			Source source) throws IOException {
+		int[] indices = vertexData.getIndices();
+		int nIndices = vertexData.getIndexCount();
+		int nElements = vertexData.getElements().size();
+
+		File file = new File(fileName);
+		File tmp = new File(fileName + ".tmp");
+		RandomAccessFile out = new RandomAccessFile(tmp, "rw");
+		try {
+			out.setLength(0);
+			FileChannel channel = out.getChannel();
+			ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20).order(
+					ByteOrder.LITTLE_ENDIAN);
+
+			buffer.putInt(MAGIC);
+			buffer.putInt(VERSION);
+			buffer.putLong(source.length);
+			buffer.putLong(source.modified);
+			buffer.putLong(source.getHash());
+			buffer.putFloat(source.scale);
+			buffer.putInt(vertexData.getNumberOfVertices());
+			buffer.putInt(nElements);
+			buffer.putInt(nIndices);
+			ListIterator<VertexData.VertexElement> itr = vertexData
+					.getElements().listIterator(0);
+			while (itr.hasNext()) {
+				VertexData.VertexElement e = itr.next();
+				buffer.putInt(e.getSemantic().ordinal());
+				buffer.putInt(e.getNumberOfComponents());
+			}
+
+			itr = vertexData.getElements().listIterator(0);
+			while (itr.hasNext()) {
+				float[] data = itr.next().getData();
+				for (int i = 0; i < data.length;) {
+					int n = Math.min(data.length - i, buffer.remaining() / 4);
+					buffer.asFloatBuffer().put(data, i, n);
+					buffer.position(buffer.position() + 4 * n);
+					i += n;
+					if (!buffer.hasRemaining())
+						flush(buffer, channel);
+				}
+			}
+			for (int i = 0; indices != null && i < nIndices;) {
+				int n = Math.min(nIndices - i, buffer.remaining() / 4);
+				buffer.asIntBuffer().put(indices, i, n);
+				buffer.position(buffer.position() + 4 * n);
+				i += n;
+				if (!buffer.hasRemaining())
+					flush(buffer, channel);
+			}
+			for (int i = 0; indices == null && i < nIndices; i++) {
+				buffer.putInt(vertexData.getIndex(i));
+				if (!buffer.hasRemaining())
+					flush(buffer, channel);
+			}
+			flush(buffer, channel);
+		} finally {
+			out.close();
+		}
+
+		if (!tmp.renameTo(file)) {
+			// Renaming does not replace existing files on some platforms
+			file.delete();
+			if (!tmp.renameTo(file)) {
+				tmp.delete();
+				throw new IOException("Could not write " + fileName);
+			}
+		}
+	}
+
+	private static void flush(ByteBuffer buffer, FileChannel channel)
+			throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+	}
+
+	/**
+	 * Read vertex data from a file, if it is valid for a source. If only the
+	 * modification time of the source changed, but not its contents, the
+	 * time stored in the file is updated, so the source is not hashed again
+	 * the next time.
+	 *
+	 * @param fileName
+	 *            the file to read
+	 * @param source
+	 *            the source the vertex data should be made from, or null to
+	 *            accept any source
+	 * @return the vertex data, or null if the file does not exist, is not
+	 *         a complete mesh file, or was made from a different source
+	 */
+	public static VertexData read(String fileName, Source source)
+			throws IOException {
+		File file = new File(fileName);
+		if (!file.isFile() || file.length() < HEADER_SIZE)
+			return null;
+
+		boolean touched = false;
+		VertexData vertexData;
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = in.getChannel();
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE)
+				return null;
+			MappedByteBuffer buffer = channel.map(
+					FileChannel.MapMode.READ_ONLY, 0, size);
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+			if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+				return null;
+			long length = buffer.getLong();
+			long modified = buffer.getLong();
+			long hash = buffer.getLong();
+			float scale = buffer.getFloat();
+			int n = buffer.getInt();
+			int nElements = buffer.getInt();
+			int nIndices = buffer.getInt();
+
+			// A source with a different time stamp is still accepted if
+			// its contents are the same
+			if (source != null
+					&& (source.length != length || source.scale != scale
+							|| (source.modified != modified
+									&& source.getHash() != hash)))
+				return null;
+			touched = source != null && source.modified != modified;
+
+			VertexData.Semantic[] semantics = VertexData.Semantic.values();
+			if (n < 0 || nIndices < 0 || nElements < 0
+					|| buffer.remaining() < 8L * nElements)
+				return null;
+			int[] elementSemantics = new int[nElements];
+			int[] components = new int[nElements];
+			long expected = HEADER_SIZE + 8L * nElements + 4L * nIndices;
+			for (int i = 0; i < nElements; i++) {
+				elementSemantics[i] = buffer.getInt();
+				components[i] = buffer.getInt();
+				if (elementSemantics[i] < 0
+						|| elementSemantics[i] >= semantics.length
+						|| components[i] < 0)
+					return null;
+				expected += 4L * n * components[i];
+			}
+			if (expected != size)
+				return null;
+
+			float[][] data = new float[nElements][];
+			for (int i = 0; i < nElements; i++) {
+				data[i] = new float[n * components[i]];
+				buffer.asFloatBuffer().get(data[i]);
+				buffer.position(buffer.position() + 4 * data[i].length);
+			}
+
+			// Elements other than positions are added at the front of the
+			// list, so adding them in reverse order restores the order
+			vertexData = new VertexData(n);
+			for (int i = nElements - 1; i >= 0; i--) {
+				vertexData.addElement(data[i], semantics[elementSemantics[i]],
+						components[i]);
+			}
+			int[] indices = new int[nIndices];
+			buffer.asIntBuffer().get(indices);
+			vertexData.addIndices(indices);
+		} finally {
+			in.close();
+		}
+
+		if (touched && file.canWrite()) {
+			RandomAccessFile out = new RandomAccessFile(file, "rw");
+			try {
+				ByteBuffer buffer = ByteBuffer.allocate(8).order(
+						ByteOrder.LITTLE_ENDIAN);
+				buffer.putLong(0, source.modified);
+				out.getChannel().write(buffer, MODIFIED_OFFSET);
+			} finally {
+				out.close();
+			}
+		}
+		return vertexData;
+	}
+
+	/**
+	 * Compute a 64 bit hash of the contents of a file.
+	 */
+	public static long hash(String fileName) throws IOException {
+		RandomAccessFile in = new RandomAccessFile(fileName, "r");
+		try {
+			FileChannel channel = in.getChannel();
+			long size = channel.size();
+			long h = size;
+			for (long position = 0; position < size; position += WINDOW_SIZE) {
+				int length = (int) Math.min(WINDOW_SIZE, size - position);
+				MappedByteBuffer buffer = channel.map(
+						FileChannel.MapMode.READ_ONLY, position, length);
+				buffer.order(ByteOrder.LITTLE_ENDIAN);
+				LongBuffer longs = buffer.asLongBuffer();
+				while (longs.hasRemaining())
+					h = mix(h, longs.get());
+				for (int i = length & ~7; i < length; i++)
+					h = mix(h, buffer.get(i));
+			}
+			return h;
+		} finally {
+			in.close();
+		}
+	}
+
+	private static long mix(long h, long x) {
+		h ^= x * 0x9e3779b97f4a7c15L;
+		h = Long.rotateLeft(h, 29) * 0xbf58476d1ce4e5b9L;
+		return h;
+	}
+}
@@ -0,0 +1,173 @@
+package jrtr;
+
+/**
+ * Reorders the triangles of a {@link VertexData} to improve the hit rate of
+ * a post-transform vertex cache, such as {@link SWVertexCache}. It
+ * implements the Tipsify algorithm by Sander, Nehab and Barczak ("Fast
+ * Triangle Reordering for Vertex Locality and Reduced Overdraw", 2007), which
+ * runs in linear time and targets FIFO caches.
+ * <p>
+ * The optimizer records the average cache miss ratio (ACMR) of the index
+ * array before and after the optimization, simulated on a FIFO cache of the
+ * same size.
+ */
+public class MeshOptimizer {
+
+	private int cacheSize;
+	private float acmrBefore, acmrAfter;
+
+	/**
+	 * Make an optimizer for a cache with the given number of entries.
+	 */
+	public MeshOptimizer(int cacheSize) {
+		this.cacheSize = cacheSize;
+	}
+
+	/**
+	 * @return the ACMR of the last optimized mesh before optimization
+	 */
+	public float getACMRBefore() {
+		return acmrBefore;
+	}
+
+	/**
+	 * @return the ACMR of the last optimized mesh after optimization
+	 */
+	public float getACMRAfter() {
+		return acmrAfter;
+	}
+
+	/**
+	 * Reorder the indices of the vertex data. The vertex data is changed by
+	 * setting the new index array. 16 bit indices are not reordered.
+	 */
+	public void optimize(VertexData vertexData) {
+		int[] indices = vertexData.getIndices();
+		if (indices == null)
+			return;
+
+		acmrBefore = SWVertexCache.acmr(indices, cacheSize);
+		int[] optimized = tipsify(indices, vertexData.getNumberOfVertices());
+		acmrAfter = SWVertexCache.acmr(optimized, cacheSize);
+
+		// Never make things worse
+		if (acmrAfter < acmrBefore) {
+			vertexData.addIndices(optimized);
+		} else {
+			acmrAfter = acmrBefore;
+		}
+	}
+
+	/**
+	 * Reorder an index array.
+	 *
+	 * @param indices
+	 *            three indices per triangle
+	 * @param n
+	 *            the number of vertices
+	 * @return the reordered index array
+	 */
+	public int[] tipsify(int[] indices, int n) {
+		int nTriangles = indices.length / 3;
+
+		// Vertex-triangle adjacency in compressed form: the triangles of
+		// vertex v are adjacency[offset[v]] to adjacency[offset[v+1]-1]
+		int[] live = new int[n];
+		for (int i = 0; i < nTriangles * 3; i++) {
+			live[indices[i]]++;
+		}
+		int[] offset = new int[n + 1];
+		for (int v = 0; v < n; v++) {
+			offset[v + 1] = offset[v] + live[v];
+		}
+		int[] adjacency = new int[nTriangles * 3];
+		int[] fill = new int[n];
+		for (int t = 0; t < nTriangles; t++) {
+			for (int k = 0; k < 3; k++) {
+				int v = indices[t * 3 + k];
+				adjacency[offset[v] + fill[v]++] = t;
+			}
+		}
+
+		int[] cacheTime = new int[n];
+		boolean[] emitted = new boolean[nTriangles];
+		int[] deadEnd = new int[nTriangles * 3];
+		int deadEndSize = 0;
+		int[] candidates = new int[16];
+		int[] output = new int[nTriangles * 3];
+		int outputSize = 0;
+
+		int time = cacheSize + 1;
+		int cursor = 1;
+		int f = n > 0 ? 0 : -1;
+		while (f >= 0) {
+			int candidateCount = 0;
+
+			// Emit all remaining triangles around the fanning vertex
+			for (int a = offset[f]; a < offset[f + 1]; a++) {
+				int t = adjacency[a];
+				if (emitted[t])
+					continue;
+				for (int k = 0; k < 3; k++) {
+					int v = indices[t * 3 + k];
+					output[outputSize++] = v;
+					deadEnd[deadEndSize++] = v;
+					if (candidateCount == candidates.length) {
+						int[] c = new int[2 * candidates.length];
+						System.arraycopy(candidates, 0, c, 0, candidateCount);
+						candidates = c;
+					}
+					candidates[candidateCount++] = v;
+					live[v]--;
+					if (time - cacheTime[v] > cacheSize) {
+						cacheTime[v] = time;
+						time++;
+					}
+				}
+				emitted[t] = true;
+			}
+
+			// Pick the candidate that stays longest in the cache, given that
+			// its remaining triangles still fit
+			int next = -1, best = -1;
+			for (int c = 0; c < candidateCount; c++) {
+				int v = candidates[c];
+				if (live[v] > 0) {
+					int p = 0;
+					if (time - cacheTime[v] + 2 * live[v] <= cacheSize)
+						p = time - cacheTime[v];
+					if (p > best) {
+						best = p;
+						next = v;
+					}
+				}
+			}
+
+			// Dead end: go back to a recently used vertex, or to the next
+			// vertex in input order that has triangles left
+			if (next < 0) {
+				while (deadEndSize > 0 && next < 0) {
+					int d = deadEnd[--deadEndSize];
+					if (live[d] > 0)
+						next = d;
+				}
+				while (next < 0 && cursor < n) {
+					if (live[cursor] > 0)
+						next = cursor;
+					cursor++;
+				}
+			}
+			f = next;
+		}
+
+		// Degenerate trailing indices that do not form a triangle
+		if (outputSize < indices.length) {
+			int[] o = new int[indices.length];
+			System.arraycopy(output, 0, o, 0, outputSize);
+			System.arraycopy(indices, outputSize, o, outputSize,
+					indices.length - outputSize);
+			output = o;
+		}
+		return output;
+	}
+}
@@ -6,6 +6,11 @@ import javax.vecmath.Matrix4f;
 
 public interface Node {
     
+    /**
+     * Return the transformation relative to the parent node. If the
+     * returned matrix is modified, {@link #setTransformationMatrix(Matrix4f)}
+     * needs to be called to make the change visible.
+     */
     public Matrix4f getTransformationMatrix();
     public void setTransformationMatrix(Matrix4f t);
     public Shape getShape();
@@ -14,4 +19,16 @@ public interface Node {
     public void setLight(Light light);
     public List<Node> getChildren();
     public void addChild(Node child);
+    
+    /**
+     * Return the transformation from the node to world space, as of the last
+     * traversal of the scene.
+     */
+    public Matrix4f getWorldTransformationMatrix();
+    
+    /**
+     * Return the transformation of the node together with the world space
+     * state that the scene manager caches for it.
+     */
+    public NodeTransformation getNodeTransformation();
 }
@@ -0,0 +1,150 @@
+package jrtr;
+
+import javax.vecmath.Matrix4f;
+
+/**
+ * Stores the transformation of a {@link Node} in the scene graph. The local
+ * transformation is relative to the parent node; the world transformation is
+ * the product of the local transformations on the path from the root to the
+ * node. The world transformation is cached and only recomputed if the local
+ * transformation or one of the parent transformations has changed.
+ * <p>
+ * The world space bounding box of the node and its descendants is cached as
+ * well. Whenever something that affects it changes, the node and all its
+ * ancestors are marked as needing an update, so the scene manager only needs
+ * to revisit these paths of the scene graph.
+ */
+public class NodeTransformation {
+
+	private Matrix4f local, world;
+	private boolean dirty;
+	private NodeTransformation parent;
+	private boolean needsUpdate;
+	private BoundingBox bounds;
+	private boolean hasLights;
+
+	/**
+	 * Make a transformation. The local transformation is the identity.
+	 */
+	public NodeTransformation() {
+		world = new Matrix4f();
+		world.setIdentity();
+		bounds = new BoundingBox();
+		dirty = true;
+		needsUpdate = true;
+	}
+
+	public NodeTransformation getParent() {
+		return parent;
+	}
+
+	/**
+	 * Attach the node to a parent, or detach it if the parent is null. The
+	 * world transformation of the node has to be recomputed.
+	 */
+	public void setParent(NodeTransformation parent) {
+		if (this.parent != null)
+			this.parent.invalidate();
+		this.parent = parent;
+		dirty = true;
+		needsUpdate = true;
+		if (parent != null)
+			parent.invalidate();
+	}
+
+	/**
+	 * Mark the node and its ancestors as needing an update, for example
+	 * because the shape of the node changed.
+	 */
+	public void invalidate() {
+		for (NodeTransformation t = this; t != null && !t.needsUpdate; t = t.parent) {
+			t.needsUpdate = true;
+		}
+	}
+
+	/**
+	 * @return true if the world transformation or the bounds of the node or
+	 *         of one of its descendants need to be updated
+	 */
+	public boolean needsUpdate() {
+		return needsUpdate;
+	}
+
+	/**
+	 * Clear the update mark, after the node has been updated.
+	 */
+	public void updated() {
+		needsUpdate = false;
+	}
+
+	/**
+	 * @return the world space bounding box of the node and its descendants
+	 */
+	public BoundingBox getBounds() {
+		return bounds;
+	}
+
+	/**
+	 * @return true if the node or one of its descendants is a light
+	 */
+	public boolean hasLights() {
+		return hasLights;
+	}
+
+	public void setHasLights(boolean hasLights) {
+		this.hasLights = hasLights;
+	}
+
+	/**
+	 * @return the local transformation, or null if it is the identity
+	 */
+	public Matrix4f getLocal() {
+		return local;
+	}
+
+	/**
+	 * Set the local transformation. The matrix is copied, hence it can be
+	 * changed and set again later.
+	 */
+	public void setLocal(Matrix4f t) {
+		if (t == null) {
+			local = null;
+		} else {
+			if (local == null)
+				local = new Matrix4f();
+			local.set(t);
+		}
+		dirty = true;
+		invalidate();
+	}
+
+	/**
+	 * @return the world transformation as of the last update
+	 */
+	public Matrix4f getWorld() {
+		return world;
+	}
+
+	/**
+	 * Recompute the world transformation if necessary.
+	 *
+	 * @param parentWorld
+	 *            the world transformation of the parent node
+	 * @param parentChanged
+	 *            true if the world transformation of the parent changed since
+	 *            the last update
+	 * @return true if the world transformation changed
+	 */
+	public boolean update(Matrix4f parentWorld, boolean parentChanged) {
+		if (!dirty && !parentChanged)
+			return false;
+
+		if (local == null) {
+			world.set(parentWorld);
+		} else {
+			world.mul(parentWorld, local);
+		}
+		dirty = false;
+		return true;
+	}
+}
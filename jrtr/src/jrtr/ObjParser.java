@@ -0,0 +1,593 @@
+package jrtr;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Parses the records of an .obj file directly from bytes, without creating
+ * strings or boxed numbers. Positions, normals, texture coordinates and face
+ * indices are appended to growable primitive arrays.
+ * <p>
+ * Faces are stored as triangles, with the indices as they appear in the file:
+ * three per face vertex (position, texture coordinate, normal), where 0 means
+ * that the index is missing. Indices of 0 in the file are rejected; whether
+ * the other indices are in range can only be checked once the whole file is
+ * parsed. Faces with more than three vertices are split into triangles.
+ * Negative indices, which count back from the most recent element, are
+ * resolved to 1-based indices relative to the first element parsed by this
+ * parser. They are listed in {@link #relativeIndices}, so that the
+ * number of elements in preceding parts of the file can be added when the
+ * file is parsed in several parts.
+ */
+public class ObjParser {
+
+	/**
+	 * A growable float array.
+	 */
+	public static class FloatArray {
+		public float[] data;
+		public int size;
+
+		public FloatArray() {
+			this(1024);
+		}
+
+		public FloatArray(int capacity) {
+			data = new float[capacity];
+		}
+
+		public void add(float f) {
+			if (size == data.length)
+				grow(size + 1);
+			data[size++] = f;
+		}
+
+		public void grow(int capacity) {
+			float[] d = new float[Math.max(capacity, 2 * data.length)];
+			System.arraycopy(data, 0, d, 0, size);
+			data = d;
+		}
+	}
+
+	/**
+	 * A growable int array.
+	 */
+	public static class IntArray {
+		public int[] data;
+		public int size;
+
+		public IntArray() {
+			this(1024);
+		}
+
+		public IntArray(int capacity) {
+			data = new int[capacity];
+		}
+
+		public void add(int i) {
+			if (size == data.length)
+				grow(size + 1);
+			data[size++] = i;
+		}
+
+		public void grow(int capacity) {
+			int[] d = new int[Math.max(capacity, 2 * data.length)];
+			System.arraycopy(data, 0, d, 0, size);
+			data = d;
+		}
+	}
+
+	private static final double[] POWERS_OF_TEN = new double[23];
+
+	static {
+		POWERS_OF_TEN[0] = 1;
+		for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+			POWERS_OF_TEN[i] = 10 * POWERS_OF_TEN[i - 1];
+		}
+	}
+
+	/**
+	 * Three floats per position, three per normal, and two per texture
+	 * coordinate.
+	 */
+	public FloatArray positions, normals, texCoords;
+
+	/**
+	 * Three indices per face vertex, three face vertices per triangle.
+	 */
+	public IntArray faces;
+
+	/**
+	 * The positions in {@link #faces} of the indices that were negative in
+	 * the file.
+	 */
+	public IntArray relativeIndices;
+
+	/**
+	 * For each face with more than three vertices, the position in
+	 * {@link #faces} of its first triangle and its number of vertices, see
+	 * {@link #triangulate()}.
+	 */
+	public IntArray polygons;
+
+	/**
+	 * False if a face vertex without texture coordinate or normal index was
+	 * found.
+	 */
+	public boolean hasTexCoordIndices, hasNormalIndices;
+
+	// Extents of the positions
+	public float xMin, xMax, yMin, yMax, zMin, zMax;
+
+	/**
+	 * If true, only the extents of the positions are computed, and no
+	 * records are stored.
+	 */
+	public boolean boundsOnly;
+
+	private ByteBuffer buffer;
+	private int pos, end;
+
+	// The indices of the corners of the current face, and whether they were
+	// relative
+	private IntArray corners, cornerRelative;
+
+	// The corners of the polygon being triangulated
+	private float[] projected;
+	private int[] remaining;
+
+	public ObjParser() {
+		positions = new FloatArray();
+		normals = new FloatArray();
+		texCoords = new FloatArray();
+		faces = new IntArray();
+		relativeIndices = new IntArray(16);
+		polygons = new IntArray(16);
+		corners = new IntArray(48);
+		cornerRelative = new IntArray(48);
+		projected = new float[0];
+		remaining = new int[0];
+		hasTexCoordIndices = true;
+		hasNormalIndices = true;
+		xMin = yMin = zMin = Float.MAX_VALUE;
+		xMax = yMax = zMax = -Float.MAX_VALUE;
+	}
+
+	/**
+	 * Parse complete lines.
+	 *
+	 * @param buffer
+	 *            the bytes of the file
+	 * @param start
+	 *            the index of the first byte of the first line
+	 * @param end
+	 *            the index after the last byte of the last line
+	 * @throws IOException
+	 *             if a face has less than three vertices
+	 */
+	public void parse(ByteBuffer buffer, int start, int end) throws IOException {
+		this.buffer = buffer;
+		this.pos = start;
+		this.end = end;
+
+		while (pos < end) {
+			skipSpaces();
+			int lineStart = pos;
+			byte c = peek(0);
+			byte d = peek(1);
+
+			if (c == 'v' && isSpace(d)) {
+				pos++;
+				float x = parseFloat(), y = parseFloat(), z = parseFloat();
+				if (!boundsOnly) {
+					positions.add(x);
+					positions.add(y);
+					positions.add(z);
+				}
+				if (x < xMin) xMin = x;
+				if (x > xMax) xMax = x;
+				if (y < yMin) yMin = y;
+				if (y > yMax) yMax = y;
+				if (z < zMin) zMin = z;
+				if (z > zMax) zMax = z;
+			} else if (boundsOnly) {
+				// Other records are skipped
+			} else if (c == 'v' && d == 'n' && isSpace(peek(2))) {
+				pos += 2;
+				normals.add(parseFloat());
+				normals.add(parseFloat());
+				normals.add(parseFloat());
+			} else if (c == 'v' && d == 't' && isSpace(peek(2))) {
+				pos += 2;
+				texCoords.add(parseFloat());
+				texCoords.add(parseFloat());
+			} else if (c == 'f' && isSpace(d)) {
+				pos++;
+				parseFace(lineStart);
+			} else if (c != '#' && !isEndOfLine(c)) {
+				System.out.print("Unknown token '" + line(lineStart) + "'\n");
+			}
+			skipLine();
+		}
+	}
+
+	private void parseFace(int lineStart) throws IOException {
+		corners.size = 0;
+		cornerRelative.size = 0;
+		skipSpaces();
+		while (pos < end && !isEndOfLine(buffer.get(pos))) {
+			// A zero or malformed index parses as 0
+			int index = parseInt();
+			if (index == 0)
+				throw new IOException("Invalid vertex index: "
+						+ line(lineStart));
+			addIndex(index, 0);
+			int k = 1;
+			while (k < 3 && pos < end && buffer.get(pos) == '/') {
+				pos++;
+				if (pos < end && isDigitOrSign(buffer.get(pos))) {
+					index = parseInt();
+					if (index == 0)
+						throw new IOException("Invalid "
+								+ (k == 1 ? "texture coordinate" : "normal")
+								+ " index: " + line(lineStart));
+					addIndex(index, k);
+				} else {
+					addIndex(0, k);
+				}
+				k++;
+			}
+			for (; k < 3; k++) {
+				addIndex(0, k);
+			}
+
+			skipToSpace();
+			skipSpaces();
+		}
+
+		int n = corners.size / 3;
+		if (n < 3)
+			throw new IOException("A face needs at least three vertices: "
+					+ line(lineStart));
+		if (n > 3) {
+			polygons.add(faces.size);
+			polygons.add(n);
+		}
+		for (int i = 1; i < n - 1; i++) {
+			addCorner(0);
+			addCorner(i);
+			addCorner(i + 1);
+		}
+		faceParsed();
+	}
+
+	/**
+	 * Called after the triangles of a face were appended to {@link #faces}.
+	 * Subclasses can consume the triangles here and remove them.
+	 *
+	 * @throws IOException
+	 *             if the face is invalid
+	 */
+	protected void faceParsed() throws IOException {
+	}
+
+	/**
+	 * Append an index to the corners of the current face.
+	 *
+	 * @param index
+	 *            the index as it appears in the file
+	 * @param k
+	 *            0 for a position, 1 for a texture coordinate, 2 for a normal
+	 */
+	private void addIndex(int index, int k) {
+		int relative = 0;
+		if (index == 0) {
+			if (k == 1)
+				hasTexCoordIndices = false;
+			else if (k == 2)
+				hasNormalIndices = false;
+		} else if (index < 0) {
+			int count = k == 0 ? positions.size / 3
+					: k == 1 ? texCoords.size / 2 : normals.size / 3;
+			index += count + 1;
+			relative = 1;
+		}
+		corners.add(index);
+		cornerRelative.add(relative);
+	}
+
+	/**
+	 * Append the indices of a corner of the current face to the faces.
+	 */
+	private void addCorner(int i) {
+		for (int k = 3 * i; k < 3 * i + 3; k++) {
+			if (cornerRelative.data[k] != 0)
+				relativeIndices.add(faces.size);
+			faces.add(corners.data[k]);
+		}
+	}
+
+	/**
+	 * Triangulate the polygons with more than three vertices by ear
+	 * clipping. Until then they are triangulated as fans, which is only
+	 * correct for convex polygons. The triangles of each polygon are
+	 * rewritten in place, so this has to be called after all relative
+	 * indices are resolved. Polygons that refer to positions this parser
+	 * does not have are left as they are.
+	 */
+	public void triangulate() {
+		for (int i = 0; i < polygons.size; i += 2) {
+			triangulate(polygons.data[i], polygons.data[i + 1]);
+		}
+		polygons.size = 0;
+	}
+
+	private void triangulate(int start, int n) {
+		int[] f = faces.data;
+
+		// Recover the corners from the fan
+		corners.size = 0;
+		for (int k = 0; k < 6; k++) {
+			corners.add(f[start + k]);
+		}
+		for (int t = 0; t < n - 2; t++) {
+			for (int k = 6; k < 9; k++) {
+				corners.add(f[start + 9 * t + k]);
+			}
+		}
+		int[] c = corners.data;
+
+		int nPositions = positions.size / 3;
+		for (int i = 0; i < n; i++) {
+			int v = c[3 * i] - 1;
+			if (v < 0 || v >= nPositions)
+				return;
+		}
+
+		// Newell's normal of the polygon
+		float[] p = positions.data;
+		float nx = 0, ny = 0, nz = 0;
+		for (int i = 0; i < n; i++) {
+			int a = 3 * (c[3 * i] - 1);
+			int b = 3 * (c[3 * ((i + 1) % n)] - 1);
+			nx += (p[a + 1] - p[b + 1]) * (p[a + 2] + p[b + 2]);
+			ny += (p[a + 2] - p[b + 2]) * (p[a] + p[b]);
+			nz += (p[a] - p[b]) * (p[a + 1] + p[b + 1]);
+		}
+
+		// Project onto the coordinate plane that is closest to the polygon,
+		// keeping its orientation
+		int u = 0, w = 1;
+		float orientation = nz;
+		if (Math.abs(nx) >= Math.abs(ny) && Math.abs(nx) >= Math.abs(nz)) {
+			u = 1;
+			w = 2;
+			orientation = nx;
+		} else if (Math.abs(ny) >= Math.abs(nz)) {
+			u = 2;
+			w = 0;
+			orientation = ny;
+		}
+		if (orientation == 0)
+			return;
+		if (projected.length < 2 * n) {
+			projected = new float[2 * n];
+			remaining = new int[n];
+		}
+		for (int i = 0; i < n; i++) {
+			int a = 3 * (c[3 * i] - 1);
+			projected[2 * i] = p[a + u];
+			projected[2 * i + 1] = orientation > 0 ? p[a + w] : -p[a + w];
+			remaining[i] = i;
+		}
+
+		// Clip ears, which are convex corners whose triangle contains no
+		// other corner
+		int out = start;
+		int m = n;
+		while (m > 3) {
+			int ear = -1;
+			for (int i = 0; i < m && ear < 0; i++) {
+				if (isEar(remaining[(i + m - 1) % m], remaining[i],
+						remaining[(i + 1) % m], m))
+					ear = i;
+			}
+			if (ear < 0)
+				break;
+			out = writeTriangle(out, remaining[(ear + m - 1) % m],
+					remaining[ear], remaining[(ear + 1) % m]);
+			System.arraycopy(remaining, ear + 1, remaining, ear, m - ear - 1);
+			m--;
+		}
+
+		// The rest is a triangle, or degenerate
+		for (int i = 1; i < m - 1; i++) {
+			out = writeTriangle(out, remaining[0], remaining[i],
+					remaining[i + 1]);
+		}
+	}
+
+	private boolean isEar(int a, int b, int c, int m) {
+		if (cross(a, b, c) <= 0)
+			return false;
+		for (int i = 0; i < m; i++) {
+			int q = remaining[i];
+			if (q == a || q == b || q == c || samePoint(q, a)
+					|| samePoint(q, b) || samePoint(q, c))
+				continue;
+			if (cross(a, b, q) >= 0 && cross(b, c, q) >= 0
+					&& cross(c, a, q) >= 0)
+				return false;
+		}
+		return true;
+	}
+
+	private float cross(int a, int b, int c) {
+		float[] p = projected;
+		return (p[2 * b] - p[2 * a]) * (p[2 * c + 1] - p[2 * a + 1])
+				- (p[2 * b + 1] - p[2 * a + 1]) * (p[2 * c] - p[2 * a]);
+	}
+
+	private boolean samePoint(int a, int b) {
+		return projected[2 * a] == projected[2 * b]
+				&& projected[2 * a + 1] == projected[2 * b + 1];
+	}
+
+	private int writeTriangle(int out, int a, int b, int c) {
+		System.arraycopy(corners.data, 3 * a, faces.data, out, 3);
+		System.arraycopy(corners.data, 3 * b, faces.data, out + 3, 3);
+		System.arraycopy(corners.data, 3 * c, faces.data, out + 6, 3);
+		return out + 9;
+	}
+
+	/**
+	 * Parse a float, with a fast path that gives the same result as
+	 * {@link Float#parseFloat(String)}.
+	 */
+	private float parseFloat() {
+		skipSpaces();
+		int start = pos;
+		boolean negative = false;
+		if (pos < end && (buffer.get(pos) == '-' || buffer.get(pos) == '+')) {
+			negative = buffer.get(pos) == '-';
+			pos++;
+		}
+
+		long mantissa = 0;
+		int digits = 0, exponent = 0;
+		boolean exact = true;
+		byte c;
+		while (pos < end && (c = buffer.get(pos)) >= '0' && c <= '9') {
+			if (digits < 18) {
+				mantissa = 10 * mantissa + (c - '0');
+				if (mantissa > 0)
+					digits++;
+			} else {
+				exponent++;
+				exact &= c == '0';
+			}
+			pos++;
+		}
+		if (pos < end && buffer.get(pos) == '.') {
+			pos++;
+			while (pos < end && (c = buffer.get(pos)) >= '0' && c <= '9') {
+				if (digits < 18) {
+					mantissa = 10 * mantissa + (c - '0');
+					if (mantissa > 0)
+						digits++;
+					exponent--;
+				} else {
+					exact &= c == '0';
+				}
+				pos++;
+			}
+		}
+		if (pos < end && (buffer.get(pos) == 'e' || buffer.get(pos) == 'E')) {
+			pos++;
+			boolean negativeExponent = false;
+			if (pos < end && (buffer.get(pos) == '-' || buffer.get(pos) == '+')) {
+				negativeExponent = buffer.get(pos) == '-';
+				pos++;
+			}
+			int e = 0;
+			while (pos < end && (c = buffer.get(pos)) >= '0' && c <= '9') {
+				if (e < 10000)
+					e = 10 * e + (c - '0');
+				pos++;
+			}
+			exponent += negativeExponent ? -e : e;
+		}
+		if (pos < end && !isSpace(buffer.get(pos))) {
+			// Something unusual, like "nan" or "inf"
+			skipToSpace();
+			return slowParseFloat(start);
+		}
+
+		if (mantissa == 0)
+			return negative ? -0.f : 0.f;
+
+		// The quotient or product is correctly rounded if the mantissa and
+		// the power of ten are exact doubles. Rounding the double to a float
+		// then gives the correctly rounded float, unless the double lies
+		// exactly between two floats or is in the subnormal range.
+		if (exact && exponent >= -22 && exponent <= 22
+				&& mantissa < (1L << 53)) {
+			double v = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent]
+					: mantissa * POWERS_OF_TEN[exponent];
+			long bits = Double.doubleToRawLongBits(v);
+			if ((bits & 0x1fffffffL) != 0x10000000L && v >= 2 * Float.MIN_NORMAL) {
+				float f = (float) v;
+				return negative ? -f : f;
+			}
+		}
+		return slowParseFloat(start);
+	}
+
+	private float slowParseFloat(int start) {
+		return Float.parseFloat(string(start, pos));
+	}
+
+	private int parseInt() {
+		skipSpaces();
+		boolean negative = false;
+		if (pos < end && (buffer.get(pos) == '-' || buffer.get(pos) == '+')) {
+			negative = buffer.get(pos) == '-';
+			pos++;
+		}
+		int i = 0;
+		byte c;
+		while (pos < end && (c = buffer.get(pos)) >= '0' && c <= '9') {
+			i = 10 * i + (c - '0');
+			pos++;
+		}
+		return negative ? -i : i;
+	}
+
+	private byte peek(int offset) {
+		return pos + offset < end ? buffer.get(pos + offset) : (byte) '\n';
+	}
+
+	private void skipSpaces() {
+		while (pos < end && (buffer.get(pos) == ' ' || buffer.get(pos) == '\t'))
+			pos++;
+	}
+
+	private void skipToSpace() {
+		while (pos < end && !isSpace(buffer.get(pos)))
+			pos++;
+	}
+
+	private void skipLine() {
+		while (pos < end && buffer.get(pos) != '\n')
+			pos++;
+		pos++;
+	}
+
+	private static boolean isSpace(byte c) {
+		return c == ' ' || c == '\t' || isEndOfLine(c);
+	}
+
+	private static boolean isEndOfLine(byte c) {
+		return c == '\n' || c == '\r';
+	}
+
+	private static boolean isDigitOrSign(byte c) {
+		return (c >= '0' && c <= '9') || c == '-' || c == '+';
+	}
+
+	private String line(int start) {
+		int e = start;
+		while (e < end && !isEndOfLine(buffer.get(e)))
+			e++;
+		return string(start, e);
+	}
+
+	private String string(int start, int e) {
+		byte[] b = new byte[e - start];
+		for (int i = 0; i < b.length; i++) {
+			b[i] = buffer.get(start + i);
+		}
+		return new String(b, Charset.forName("US-ASCII"));
+	}
+}
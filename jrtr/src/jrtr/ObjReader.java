@@ -1,7 +1,11 @@
 package jrtr;
 
 import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * Reads on .obj file including normals and texture coordinates.
@@ -9,7 +13,240 @@ import java.util.ArrayList;
 public class ObjReader {
 
 	/**
-	 * Read an .obj file and return vertex data.
+	 * Size of the parts of the file that are memory mapped at a time.
+	 */
+	private static final int WINDOW_SIZE = 1 << 28;
+
+	/**
+	 * Approximate size of the parts of the file that are parsed in parallel.
+	 */
+	private static final int CHUNK_SIZE = 1 << 22;
+
+	/**
+	 * Number of vertices whose attributes are copied by one task.
+	 */
+	private static final int GATHER_SIZE = 1 << 16;
+
+	private static ForkJoinPool pool;
+
+	/**
+	 * Parses the lines of one chunk of the file.
+	 */
+	private static class Chunk extends RecursiveAction
+	{
+		static final long serialVersionUID = 0;
+
+		MappedByteBuffer buffer;
+		int start, end;
+		ObjParser parser;
+		IOException error;
+
+		Chunk(MappedByteBuffer buffer, int start, int end)
+		{
+			this.buffer = buffer;
+			this.start = start;
+			this.end = end;
+			parser = new ObjParser();
+		}
+
+		protected void compute()
+		{
+			try
+			{
+				parser.parse(buffer, start, end);
+			}
+			catch(IOException e)
+			{
+				error = e;
+			}
+		}
+	}
+
+	/**
+	 * Copies the records of a chunk to the merged arrays, and adds the
+	 * number of elements in preceding chunks to its relative indices.
+	 */
+	private static class Merge extends RecursiveAction
+	{
+		static final long serialVersionUID = 0;
+
+		ObjParser part, merged;
+		int positionStart, normalStart, texCoordStart, faceStart;
+
+		Merge(ObjParser part, ObjParser merged)
+		{
+			this.part = part;
+			this.merged = merged;
+		}
+
+		protected void compute()
+		{
+			System.arraycopy(part.positions.data, 0, merged.positions.data, positionStart, part.positions.size);
+			System.arraycopy(part.normals.data, 0, merged.normals.data, normalStart, part.normals.size);
+			System.arraycopy(part.texCoords.data, 0, merged.texCoords.data, texCoordStart, part.texCoords.size);
+			System.arraycopy(part.faces.data, 0, merged.faces.data, faceStart, part.faces.size);
+
+			int[] base = {positionStart/3, texCoordStart/2, normalStart/3};
+			for(int i=0; i<part.relativeIndices.size; i++)
+			{
+				int p = part.relativeIndices.data[i];
+				merged.faces.data[faceStart+p] += base[p%3];
+			}
+		}
+	}
+
+	/**
+	 * Assigns an index to each distinct combination of position, texture
+	 * coordinate and normal index. The combinations are stored in the order
+	 * in which they are first seen, three indices each; the hash table is an
+	 * open addressing table with linear probing that holds the number of the
+	 * combination plus one, or 0 in empty slots.
+	 */
+	static class VertexMap
+	{
+		int[] keys;
+		int size;
+		private int[] table;
+		private int mask;
+
+		VertexMap(int expectedSize)
+		{
+			int capacity = 16;
+			while(capacity < 2*expectedSize)
+				capacity *= 2;
+			table = new int[capacity];
+			mask = capacity-1;
+			keys = new int[3*Math.max(expectedSize, 16)];
+		}
+
+		/**
+		 * @return the index of the combination, which is added if it is new
+		 */
+		int get(int v, int t, int n)
+		{
+			int slot = hash(v, t, n) & mask;
+			int entry;
+			while((entry = table[slot]) != 0)
+			{
+				int k = 3*(entry-1);
+				if(keys[k] == v && keys[k+1] == t && keys[k+2] == n)
+					return entry-1;
+				slot = (slot+1) & mask;
+			}
+
+			if(3*size == keys.length)
+			{
+				int[] k = new int[2*keys.length];
+				System.arraycopy(keys, 0, k, 0, keys.length);
+				keys = k;
+			}
+			keys[3*size] = v;
+			keys[3*size+1] = t;
+			keys[3*size+2] = n;
+			table[slot] = ++size;
+			if(2*size > table.length)
+				rehash();
+			return size-1;
+		}
+
+		private void rehash()
+		{
+			table = new int[2*table.length];
+			mask = table.length-1;
+			for(int i=0; i<size; i++)
+			{
+				int slot = hash(keys[3*i], keys[3*i+1], keys[3*i+2]) & mask;
+				while(table[slot] != 0)
+					slot = (slot+1) & mask;
+				table[slot] = i+1;
+			}
+		}
+
+		private static int hash(int v, int t, int n)
+		{
+			int h = v*0x9e3779b1 + t*0x85ebca6b + n*0xc2b2ae35;
+			return h ^ (h >>> 16);
+		}
+	}
+
+	/**
+	 * Copies the attributes of a range of distinct vertices, see
+	 * {@link ObjReader#makeVertexData(ObjParser, float)}.
+	 */
+	private static class Gather extends RecursiveAction
+	{
+		static final long serialVersionUID = 0;
+
+		ObjParser parser;
+		int[] keys;
+		int from, to;
+		float scale, xTrans, yTrans, zTrans;
+		float[] verticesFinal, normalsFinal, texCoordsFinal;
+
+		protected void compute()
+		{
+			if(to - from > GATHER_SIZE)
+			{
+				Gather left = copy(from, (from+to)/2);
+				Gather right = copy((from+to)/2, to);
+				invokeAll(left, right);
+				return;
+			}
+
+			float[] vertices = parser.positions.data;
+			float[] normals = parser.normals.data;
+			float[] texCoords = parser.texCoords.data;
+			int nNormals = parser.normals.size/3;
+			int nTexCoords = parser.texCoords.size/2;
+
+			for(int vertexNr=from; vertexNr<to; vertexNr++)
+			{
+				int v = keys[vertexNr*3];
+				int t = keys[vertexNr*3+1];
+				int n = keys[vertexNr*3+2];
+
+				verticesFinal[vertexNr*3] = scale*(vertices[v*3]+xTrans);
+				verticesFinal[vertexNr*3+1] = scale*(vertices[v*3+1]+yTrans);
+				verticesFinal[vertexNr*3+2] = scale*(vertices[v*3+2]+zTrans);
+
+				// Faces without normal indices use their position indices,
+				// which may be out of range and give zero attributes
+				if(n >= 0 && n < nNormals)
+				{
+					normalsFinal[vertexNr*3] = normals[n*3];
+					normalsFinal[vertexNr*3+1] = normals[n*3+1];
+					normalsFinal[vertexNr*3+2] = normals[n*3+2];
+				}
+
+				if(t >= 0 && t < nTexCoords)
+				{
+					texCoordsFinal[vertexNr*2] = texCoords[t*2];
+					texCoordsFinal[vertexNr*2+1] = texCoords[t*2+1];
+				}
+			}
+		}
+
+		private Gather copy(int from, int to)
+		{
+			Gather g = new Gather();
+			g.parser = parser;
+			g.keys = keys;
+			g.from = from;
+			g.to = to;
+			g.scale = scale;
+			g.xTrans = xTrans;
+			g.yTrans = yTrans;
+			g.zTrans = zTrans;
+			g.verticesFinal = verticesFinal;
+			g.normalsFinal = normalsFinal;
+			g.texCoordsFinal = texCoordsFinal;
+			return g;
+		}
+	}
+
+	/**
+	 * Read an .obj file and return vertex data. Large files are parsed in
+	 * parallel.
 	 * @param fileName the file to read.
 	 * @param scale scales the object to fit into a cube of the given size
 	 * @return
@@ -17,180 +254,301 @@ public class ObjReader {
 	 */
 	public static VertexData read(String fileName, float scale) throws IOException
 	{
-		BufferedReader reader;
-		ArrayList<float[]> vertices = new ArrayList<float[]>();
-		ArrayList<float[]> texCoords = new ArrayList<float[]>();
-		ArrayList<float[]> normals = new ArrayList<float[]>();
-		ArrayList<int[][]> faces = new ArrayList<int[][]>();
-		
-		boolean hasNormalIndices, hasTexCoordIndices;
-		hasNormalIndices = true;
-		hasTexCoordIndices = true;
-		
-		// Extents for normalization
-		float xMin, xMax, yMin, yMax, zMin, zMax;
-		xMin = Float.MAX_VALUE;
-		xMax = Float.MIN_VALUE;
-		yMin = Float.MAX_VALUE;
-		yMax = Float.MIN_VALUE;
-		zMin = Float.MAX_VALUE;
-		zMax = Float.MIN_VALUE;
-		
-		reader = new BufferedReader(new FileReader(fileName));
-
-		String line = null;
-		while((line = reader.readLine()) != null)
-		{	
-			// Read line
-			String[] s = line.split("\\s+");
-			
-			// Parse
-			if(s[0].compareTo("v")==0)
-			{
-				// Position
-				float[] v = new float[3];
-				v[0] = Float.valueOf(s[1]).floatValue();
-				v[1] = Float.valueOf(s[2]).floatValue();
-				v[2] = Float.valueOf(s[3]).floatValue();
-				vertices.add(v);
-				
-				// Update extent
-				if(v[0] < xMin) xMin = v[0];
-				if(v[0] > xMax) xMax = v[0];
-				if(v[1] < yMin) yMin = v[1];
-				if(v[1] > yMax) yMax = v[1];
-				if(v[2] < zMin) zMin = v[2];
-				if(v[2] > zMax) zMax = v[2];
-			} 
-			else if(s[0].compareTo("vn")==0)
-			{
-				// Normal
-				float[] n = new float[3];
-				n[0] = Float.valueOf(s[1]).floatValue();
-				n[1] = Float.valueOf(s[2]).floatValue();
-				n[2] = Float.valueOf(s[3]).floatValue();
-				normals.add(n);
-			}
-			else if(s[0].compareTo("vt")==0)
+		return read(fileName, scale, true);
+	}
+
+	/**
+	 * Read an .obj file through a cache. The vertex data is stored in a
+	 * {@link MeshFile} next to the source file, with the extension .mesh
+	 * appended, which is read instead of the source as long as the source
+	 * does not change.
+	 * @param fileName the file to read.
+	 * @param scale scales the object to fit into a cube of the given size
+	 * @return
+	 * @throws IOException if the source cannot be read, or the cache cannot
+	 * be written
+	 */
+	public static VertexData readCached(String fileName, float scale) throws IOException
+	{
+		return readCached(fileName, scale, fileName + ".mesh");
+	}
+
+	/**
+	 * Read an .obj file through a cache.
+	 * @param fileName the file to read.
+	 * @param scale scales the object to fit into a cube of the given size
+	 * @param cacheName the {@link MeshFile} that is read instead of the
+	 * source if it was made from the same source, and is written otherwise
+	 * @return
+	 * @throws IOException if the source cannot be read, or the cache cannot
+	 * be written
+	 */
+	public static VertexData readCached(String fileName, float scale, String cacheName) throws IOException
+	{
+		MeshFile.Source source = new MeshFile.Source(fileName, scale);
+		VertexData vertexData = MeshFile.read(cacheName, source);
+		if(vertexData != null)
+			return vertexData;
+
+		vertexData = read(fileName, scale, true);
+		MeshFile.write(vertexData, cacheName, source);
+		return vertexData;
+	}
+
+	/**
+	 * Read an .obj file and return vertex data.
+	 * @param fileName the file to read.
+	 * @param scale scales the object to fit into a cube of the given size
+	 * @param parallel if true, the file is split into chunks at line
+	 * boundaries, which are parsed on all available processors
+	 * @return
+	 * @throws IOException
+	 */
+	public static VertexData read(String fileName, float scale, boolean parallel) throws IOException
+	{
+		ObjParser parser = null;
+		final ArrayList<Chunk> chunks = new ArrayList<Chunk>();
+		if(parallel)
+			map(fileName, null, chunks);
+		else
+		{
+			parser = new ObjParser();
+			map(fileName, parser, null);
+		}
+
+		if(parallel)
+		{
+			// The chunks only hold references to the mapped windows, so the
+			// file can be parsed after the channel was closed
+			getPool().invoke(new RecursiveAction() {
+				static final long serialVersionUID = 0;
+
+				protected void compute()
+				{
+					invokeAll(chunks);
+				}
+			});
+			for(Chunk c : chunks)
 			{
-				// Texture
-				float[] t = new float[2];
-				t[0] = Float.valueOf(s[1]).floatValue();
-				t[1] = Float.valueOf(s[2]).floatValue();
-				texCoords.add(t);
+				if(c.error != null)
+					throw c.error;
 			}
-			else if(s[0].compareTo("f")==0)
+			parser = merge(chunks);
+		}
+
+		parser.triangulate();
+		return makeVertexData(parser, scale);
+	}
+
+	/**
+	 * Memory map a file window by window, and either parse the complete lines
+	 * in each window with the given parser, or split them into chunks that
+	 * can be parsed in parallel.
+	 */
+	static void map(String fileName, ObjParser parser, ArrayList<Chunk> chunks) throws IOException
+	{
+		RandomAccessFile file = new RandomAccessFile(fileName, "r");
+		try
+		{
+			FileChannel channel = file.getChannel();
+			long size = channel.size();
+			long position = 0;
+			while(position < size)
 			{
-				// Indices
-				int[][] indices = new int[3][3];
-				
-				// For all vertices
-				int i=1;
-				while(i < s.length)
-				{	
-					// Get indices for vertex position, tex. coords., and normals
-					String[] ss = s[i].split("/");
-					int k=0;
-					while(k < ss.length)
+				int length = (int)Math.min(WINDOW_SIZE, size - position);
+				MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+
+				int end = length;
+				if(position + length < size)
+					end = lineEnd(buffer, 0, end);
+				if(end == 0)
+					throw new IOException("Line too long in " + fileName);
+
+				if(parser == null)
+				{
+					// Split the window into chunks that end after a newline
+					int start = 0;
+					while(start < end)
 					{
-						if(ss[k].length()>0)
-							indices[i-1][k] = Integer.valueOf(ss[k]).intValue();
-						else
+						int chunkEnd = end;
+						if(end - start > CHUNK_SIZE)
 						{
-							indices[i-1][k] = -1;
-							if(k == 1) hasTexCoordIndices = false;
-							if(k == 2) hasNormalIndices = false;
+							chunkEnd = lineEnd(buffer, start, start + CHUNK_SIZE);
+							if(chunkEnd == start)
+								chunkEnd = end;
 						}
-						k++;
+						chunks.add(new Chunk(buffer, start, chunkEnd));
+						start = chunkEnd;
 					}
-					if(ss.length == 1)
-					{
-						hasTexCoordIndices = false;
-						hasNormalIndices = false;
-					}
-					i++;
 				}
-				faces.add(indices);
+				else
+					parser.parse(buffer, 0, end);
+				position += end;
 			}
-			else if(s[0].length()>0 && s[0].charAt(0)!='#')
+		}
+		finally
+		{
+			file.close();
+		}
+	}
+
+	/**
+	 * @return the index after the last newline in the buffer between start
+	 * and end, or start if there is none
+	 */
+	private static int lineEnd(MappedByteBuffer buffer, int start, int end)
+	{
+		while(end > start && buffer.get(end-1) != '\n')
+			end--;
+		return end;
+	}
+
+	private static synchronized ForkJoinPool getPool()
+	{
+		if(pool == null)
+			pool = new ForkJoinPool();
+		return pool;
+	}
+
+	/**
+	 * Merge the records of the chunks of a file. The start of each chunk in
+	 * the merged arrays is the sum of the sizes of the preceding chunks. The
+	 * polygons of the chunks are not triangulated yet, because they may refer
+	 * to positions in other chunks.
+	 */
+	private static ObjParser merge(ArrayList<Chunk> chunks)
+	{
+		final ArrayList<Merge> merges = new ArrayList<Merge>();
+		ObjParser merged = new ObjParser();
+		int positions = 0, normals = 0, texCoords = 0, faces = 0;
+		for(Chunk c : chunks)
+		{
+			ObjParser part = c.parser;
+			Merge m = new Merge(part, merged);
+			m.positionStart = positions;
+			m.normalStart = normals;
+			m.texCoordStart = texCoords;
+			m.faceStart = faces;
+			merges.add(m);
+
+			for(int i=0; i<part.polygons.size; i+=2)
 			{
-				System.out.print("Unknown token '".concat(line).concat("'\n"));
+				merged.polygons.add(faces + part.polygons.data[i]);
+				merged.polygons.add(part.polygons.data[i+1]);
 			}
+
+			positions += part.positions.size;
+			normals += part.normals.size;
+			texCoords += part.texCoords.size;
+			faces += part.faces.size;
+
+			merged.hasNormalIndices &= part.hasNormalIndices;
+			merged.hasTexCoordIndices &= part.hasTexCoordIndices;
+			merged.xMin = Math.min(merged.xMin, part.xMin);
+			merged.xMax = Math.max(merged.xMax, part.xMax);
+			merged.yMin = Math.min(merged.yMin, part.yMin);
+			merged.yMax = Math.max(merged.yMax, part.yMax);
+			merged.zMin = Math.min(merged.zMin, part.zMin);
+			merged.zMax = Math.max(merged.zMax, part.zMax);
 		}
 
+		merged.positions = new ObjParser.FloatArray(positions);
+		merged.normals = new ObjParser.FloatArray(normals);
+		merged.texCoords = new ObjParser.FloatArray(texCoords);
+		merged.faces = new ObjParser.IntArray(faces);
+		merged.positions.size = positions;
+		merged.normals.size = normals;
+		merged.texCoords.size = texCoords;
+		merged.faces.size = faces;
+
+		getPool().invoke(new RecursiveAction() {
+			static final long serialVersionUID = 0;
+
+			protected void compute()
+			{
+				invokeAll(merges);
+			}
+		});
+		return merged;
+	}
+
+	/**
+	 * Make vertex data from the parsed records. Face vertices that use the
+	 * same position, texture coordinate and normal are shared. The object is
+	 * centered and scaled to fit into a cube of the given size.
+	 * @throws IOException if a face refers to a position, texture coordinate
+	 * or normal that does not exist
+	 */
+	static VertexData makeVertexData(ObjParser parser, float scale) throws IOException
+	{
 		// Normalization
-		float xTrans = -(xMax+xMin)/2;
-		float yTrans = -(yMax+yMin)/2;
-		float zTrans = -(zMax+zMin)/2;
-		float xScale = 2/(xMax-xMin);
-		float yScale = 2/(yMax-yMin);
-		float zScale = 2/(zMax-zMin);
+		float xTrans = -(parser.xMax+parser.xMin)/2;
+		float yTrans = -(parser.yMax+parser.yMin)/2;
+		float zTrans = -(parser.zMax+parser.zMin)/2;
+		float xScale = 2/(parser.xMax-parser.xMin);
+		float yScale = 2/(parser.yMax-parser.yMin);
+		float zScale = 2/(parser.zMax-parser.zMin);
 		float s = yScale;
 		if(xScale < yScale) s = xScale;
 		if(zScale < s) s = zScale;
 		scale = s*scale;
-		
-		// Brute force approach to generate single index per vertex
-		// Expand arrays
-		int nFaces = faces.size();
-		float[] verticesFinal = new float[nFaces*9];
-		float[] normalsFinal = new float[nFaces*9];
-		float[] texCoordsFinal = new float[nFaces*6];
+
+		// Weld the face vertices: each distinct combination of position,
+		// texture coordinate and normal becomes one vertex
+		int[] faces = parser.faces.data;
+		int nFaces = parser.faces.size/9;
+		boolean hasNormals = parser.normals.size > 0;
+		boolean hasTexCoords = parser.texCoords.size > 0;
+		boolean hasNormalIndices = parser.hasNormalIndices;
+		boolean hasTexCoordIndices = parser.hasTexCoordIndices;
+		int nPositions = parser.positions.size/3;
+		int nNormals = parser.normals.size/3;
+		int nTexCoords = parser.texCoords.size/2;
 		int[] indices = new int[nFaces*3];
-		
-		// For all faces
-		int vertexNr = 0;
-		for(int i=0; i<nFaces; i++)
+		VertexMap map = new VertexMap(parser.positions.size/3);
+		for(int vertexNr=0; vertexNr<nFaces*3; vertexNr++)
 		{
-			// For all vertices
-			for(int j=0; j<3; j++)
-			{
-				// Copy positions, tex. coords., and normals to expanded arrays
-				// Note: we subtract one from the index because indexing in the obj
-				// file is 1-based, whereas our arrays are 0-based
-				verticesFinal[vertexNr*3] = vertices.get(faces.get(i)[j][0]-1)[0];
-				verticesFinal[vertexNr*3+1] = vertices.get(faces.get(i)[j][0]-1)[1];
-				verticesFinal[vertexNr*3+2] = vertices.get(faces.get(i)[j][0]-1)[2];
-				
-				verticesFinal[vertexNr*3] = scale*(verticesFinal[vertexNr*3]+xTrans);
-				verticesFinal[vertexNr*3+1] = scale*(verticesFinal[vertexNr*3+1]+yTrans);
-				verticesFinal[vertexNr*3+2] = scale*(verticesFinal[vertexNr*3+2]+zTrans);
-				
-				if(hasNormalIndices)
-				{
-					normalsFinal[vertexNr*3] = normals.get(faces.get(i)[j][2]-1)[0];
-					normalsFinal[vertexNr*3+1] = normals.get(faces.get(i)[j][2]-1)[1];
-					normalsFinal[vertexNr*3+2] = normals.get(faces.get(i)[j][2]-1)[2];
-				} else if(normals.size()>0)
-				{
-					normalsFinal[vertexNr*3] = normals.get(faces.get(i)[j][0]-1)[0];
-					normalsFinal[vertexNr*3+1] = normals.get(faces.get(i)[j][0]-1)[1];
-					normalsFinal[vertexNr*3+2] = normals.get(faces.get(i)[j][0]-1)[2];
-				}
-				
-				if(hasTexCoordIndices)
-				{
-					texCoordsFinal[vertexNr*2] = texCoords.get(faces.get(i)[j][1]-1)[0];
-					texCoordsFinal[vertexNr*2+1] = texCoords.get(faces.get(i)[j][1]-1)[1];
-				} else if(texCoords.size()>0)
-				{
-					texCoordsFinal[vertexNr*2] = texCoords.get(faces.get(i)[j][0]-1)[0];
-					texCoordsFinal[vertexNr*2+1] = texCoords.get(faces.get(i)[j][0]-1)[1];
-				}
-				
-				indices[vertexNr] = vertexNr;
-				vertexNr++;
-			}								
-		}
-		
-		VertexData vertexData = new VertexData(nFaces*3);
-		vertexData.addElement(verticesFinal, VertexData.Semantic.POSITION, 3);
-		if(normals.size()>0)
-			vertexData.addElement(normalsFinal, VertexData.Semantic.NORMAL, 3);
-		if(texCoords.size()>0)
-			vertexData.addElement(texCoordsFinal, VertexData.Semantic.TEXCOORD, 2);
+			// Note: we subtract one from the index because indexing in the obj
+			// file is 1-based, whereas our arrays are 0-based. Indices of
+			// missing elements are set to 0, so they do not split vertices.
+			int v = faces[vertexNr*3]-1;
+			int t = !hasTexCoords ? 0 : hasTexCoordIndices ? faces[vertexNr*3+1]-1 : v;
+			int n = !hasNormals ? 0 : hasNormalIndices ? faces[vertexNr*3+2]-1 : v;
+			if(v < 0 || v >= nPositions)
+				throw new IOException("Invalid vertex index "+faces[vertexNr*3]);
+			if(hasTexCoords && hasTexCoordIndices && (t < 0 || t >= nTexCoords))
+				throw new IOException("Invalid texture coordinate index "+faces[vertexNr*3+1]);
+			if(hasNormals && hasNormalIndices && (n < 0 || n >= nNormals))
+				throw new IOException("Invalid normal index "+faces[vertexNr*3+2]);
+			indices[vertexNr] = map.get(v, t, n);
+		}
+
+		// Copy positions, tex. coords., and normals of the distinct vertices
+		int nVertices = map.size;
+		Gather gather = new Gather();
+		gather.parser = parser;
+		gather.keys = map.keys;
+		gather.from = 0;
+		gather.to = nVertices;
+		gather.scale = scale;
+		gather.xTrans = xTrans;
+		gather.yTrans = yTrans;
+		gather.zTrans = zTrans;
+		gather.verticesFinal = new float[nVertices*3];
+		gather.normalsFinal = new float[hasNormals ? nVertices*3 : 0];
+		gather.texCoordsFinal = new float[hasTexCoords ? nVertices*2 : 0];
+		if(nVertices > GATHER_SIZE)
+			getPool().invoke(gather);
+		else
+			gather.compute();
+
+		VertexData vertexData = new VertexData(nVertices);
+		vertexData.addElement(gather.verticesFinal, VertexData.Semantic.POSITION, 3);
+		if(hasNormals)
+			vertexData.addElement(gather.normalsFinal, VertexData.Semantic.NORMAL, 3);
+		if(hasTexCoords)
+			vertexData.addElement(gather.texCoordsFinal, VertexData.Semantic.TEXCOORD, 2);
 		vertexData.addIndices(indices);
-		return vertexData;			
+		return vertexData;
 	}
 }
- 
\ No newline at end of file
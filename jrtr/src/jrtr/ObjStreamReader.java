@@ -0,0 +1,302 @@
+package jrtr;
+
+import java.io.IOException;
+
+import javax.vecmath.Matrix4f;
+
+/**
+ * Reads an .obj file in chunks of at most a given number of vertices, and
+ * passes each chunk as a {@link VertexData} of its own to a
+ * {@link Consumer} while the file is being read. Faces are welded into the
+ * chunks like in {@link ObjReader}, but the faces of the whole file and the
+ * final arrays are never held in memory at once, only the open chunks are.
+ * The memory is not bounded by the chunk size, though: all positions,
+ * normals and texture coordinates of the file are kept until it is read,
+ * because faces may refer to any of them.
+ * <p>
+ * To make the chunks spatially coherent, the faces are binned by their
+ * centroids into a regular grid over the bounds of the positions, and each
+ * cell of the grid fills a chunk of its own. Unless the bounds are given
+ * with {@link #setBounds(BoundingBox)}, they are found in a first pass over
+ * the file, which only parses the positions and stores none of them. The
+ * positions are passed on as they are in the file, without centering or
+ * scaling.
+ */
+public class ObjStreamReader {
+
+	/**
+	 * Receives the chunks of a file, on the thread that reads it.
+	 */
+	public interface Consumer {
+		void consume(VertexData chunk);
+	}
+
+	/**
+	 * Adds each chunk as a {@link ShapeNode} to a {@link TransformGroup},
+	 * and sets the transformation of the group so that the chunks read so
+	 * far are centered and fit into a cube of the given size, like the
+	 * objects read by {@link ObjReader}. If the file is read on a different
+	 * thread than the one that renders the group, the caller has to
+	 * synchronize them.
+	 */
+	public static class ShapeBuilder implements Consumer {
+		private TransformGroup group;
+		private float scale;
+		private BoundingBox bounds;
+		private Matrix4f t;
+
+		public ShapeBuilder(TransformGroup group, float scale) {
+			this.group = group;
+			this.scale = scale;
+			bounds = new BoundingBox();
+			t = new Matrix4f();
+		}
+
+		public void consume(VertexData chunk) {
+			Shape shape = new Shape(chunk);
+			ShapeNode node = new ShapeNode();
+			node.setShape(shape);
+			group.addChild(node);
+
+			bounds.include(shape.getBounds());
+			float s = 2 / Math.max(bounds.maxX - bounds.minX, Math.max(
+					bounds.maxY - bounds.minY, bounds.maxZ - bounds.minZ));
+			s *= scale;
+			t.setIdentity();
+			t.m00 = t.m11 = t.m22 = s;
+			t.m03 = -s * (bounds.maxX + bounds.minX) / 2;
+			t.m13 = -s * (bounds.maxY + bounds.minY) / 2;
+			t.m23 = -s * (bounds.maxZ + bounds.minZ) / 2;
+			group.setTransformationMatrix(t);
+		}
+	}
+
+	/**
+	 * The faces of one cell of the grid that have not been passed on yet.
+	 */
+	private static class Cell {
+		ObjReader.VertexMap map = new ObjReader.VertexMap(0);
+		ObjParser.IntArray indices = new ObjParser.IntArray();
+	}
+
+	/**
+	 * Passes the faces to the cells as soon as they are parsed.
+	 */
+	private class StreamParser extends ObjParser {
+		protected void faceParsed() throws IOException {
+			triangulate();
+			for (int i = 0; i < faces.size; i += 9) {
+				addTriangle(i);
+			}
+			faces.size = 0;
+			relativeIndices.size = 0;
+		}
+	}
+
+	private Consumer consumer;
+	private int chunkSize, gridSize;
+	private BoundingBox bounds, grid;
+	private Cell[] cells;
+	private ObjParser parser;
+
+	/**
+	 * Make a reader that passes chunks of at most 65536 vertices, so they
+	 * can be drawn with 16 bit indices, from a 4x4x4 grid to the consumer.
+	 */
+	public ObjStreamReader(Consumer consumer) {
+		this.consumer = consumer;
+		chunkSize = 1 << 16;
+		gridSize = 4;
+	}
+
+	/**
+	 * Set the maximum number of vertices per chunk, at least 3.
+	 */
+	public void setChunkSize(int chunkSize) {
+		this.chunkSize = Math.max(3, chunkSize);
+	}
+
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	/**
+	 * Set the number of cells of the grid along each axis. With a grid size
+	 * of 1, the chunks follow the order of the faces in the file.
+	 */
+	public void setGridSize(int gridSize) {
+		this.gridSize = Math.max(1, gridSize);
+	}
+
+	public int getGridSize() {
+		return gridSize;
+	}
+
+	/**
+	 * Set the bounds of the positions of the files that are read, for
+	 * example from a previous read, so the grid can be placed without a
+	 * first pass over the file. Faces outside of the bounds are binned into
+	 * the nearest cell.
+	 *
+	 * @param bounds
+	 *            the bounds, or null to find them in a first pass
+	 */
+	public void setBounds(BoundingBox bounds) {
+		this.bounds = bounds;
+	}
+
+	/**
+	 * Read an .obj file and pass its chunks to the consumer.
+	 */
+	public void read(String fileName) throws IOException {
+		grid = new BoundingBox();
+		if (bounds != null) {
+			grid.set(bounds);
+		} else if (gridSize > 1) {
+			ObjParser p = new ObjParser();
+			p.boundsOnly = true;
+			ObjReader.map(fileName, p, null);
+			grid.include(p.xMin, p.yMin, p.zMin);
+			grid.include(p.xMax, p.yMax, p.zMax);
+		}
+
+		cells = new Cell[gridSize * gridSize * gridSize];
+		parser = new StreamParser();
+		try {
+			ObjReader.map(fileName, parser, null);
+			for (int i = 0; i < cells.length; i++) {
+				if (cells[i] != null)
+					emit(cells[i]);
+			}
+		} finally {
+			cells = null;
+			parser = null;
+			grid = null;
+		}
+	}
+
+	/**
+	 * Read an .obj file into a new transform group, with one shape node per
+	 * chunk, see {@link ShapeBuilder}.
+	 *
+	 * @param fileName
+	 *            the file to read
+	 * @param scale
+	 *            scales the object to fit into a cube of the given size
+	 */
+	public static TransformGroup readShapes(String fileName, float scale)
+			throws IOException {
+		TransformGroup group = new TransformGroup();
+		new ObjStreamReader(new ShapeBuilder(group, scale)).read(fileName);
+		return group;
+	}
+
+	private void addTriangle(int start) throws IOException {
+		int[] faces = parser.faces.data;
+		float[] positions = parser.positions.data;
+		int nPositions = parser.positions.size / 3;
+		int nTexCoords = parser.texCoords.size / 2;
+		int nNormals = parser.normals.size / 3;
+		float x = 0, y = 0, z = 0;
+		for (int k = 0; k < 3; k++) {
+			int v = faces[start + 3 * k] - 1;
+			int t = faces[start + 3 * k + 1];
+			int n = faces[start + 3 * k + 2];
+			if (v < 0 || v >= nPositions)
+				throw new IOException("Invalid vertex index "
+						+ faces[start + 3 * k]);
+			// Like in ObjReader, indices of elements the file has none of
+			// are ignored
+			if (nTexCoords > 0 && t != 0 && (t < 0 || t > nTexCoords))
+				throw new IOException("Invalid texture coordinate index " + t);
+			if (nNormals > 0 && n != 0 && (n < 0 || n > nNormals))
+				throw new IOException("Invalid normal index " + n);
+			x += positions[3 * v];
+			y += positions[3 * v + 1];
+			z += positions[3 * v + 2];
+		}
+
+		int ix = cellIndex(x / 3, grid.minX, grid.maxX);
+		int iy = cellIndex(y / 3, grid.minY, grid.maxY);
+		int iz = cellIndex(z / 3, grid.minZ, grid.maxZ);
+		int cell = (iz * gridSize + iy) * gridSize + ix;
+		Cell c = cells[cell];
+		if (c == null) {
+			c = new Cell();
+			cells[cell] = c;
+		}
+		if (c.map.size + 3 > chunkSize)
+			emit(c);
+
+		// Missing texture coordinate and normal indices refer to the
+		// position index, like in ObjReader
+		for (int k = start; k < start + 9; k += 3) {
+			int v = faces[k] - 1;
+			int t = faces[k + 1] > 0 ? faces[k + 1] - 1 : v;
+			int n = faces[k + 2] > 0 ? faces[k + 2] - 1 : v;
+			c.indices.add(c.map.get(v, t, n));
+		}
+	}
+
+	private int cellIndex(float f, float min, float max) {
+		if (!(max > min))
+			return 0;
+		int i = (int) ((f - min) / (max - min) * gridSize);
+		return Math.max(0, Math.min(gridSize - 1, i));
+	}
+
+	/**
+	 * Pass the faces of a cell to the consumer, and start a new chunk.
+	 */
+	private void emit(Cell c) {
+		if (c.indices.size == 0)
+			return;
+
+		int n = c.map.size;
+		int[] keys = c.map.keys;
+		float[] positions = parser.positions.data;
+		float[] normals = parser.normals.data;
+		float[] texCoords = parser.texCoords.data;
+		boolean hasNormals = parser.normals.size > 0;
+		boolean hasTexCoords = parser.texCoords.size > 0;
+		int nNormals = parser.normals.size / 3;
+		int nTexCoords = parser.texCoords.size / 2;
+
+		float[] positionsFinal = new float[n * 3];
+		float[] normalsFinal = new float[hasNormals ? n * 3 : 0];
+		float[] texCoordsFinal = new float[hasTexCoords ? n * 2 : 0];
+		for (int i = 0; i < n; i++) {
+			int v = keys[3 * i], t = keys[3 * i + 1], nr = keys[3 * i + 2];
+			positionsFinal[3 * i] = positions[3 * v];
+			positionsFinal[3 * i + 1] = positions[3 * v + 1];
+			positionsFinal[3 * i + 2] = positions[3 * v + 2];
+
+			// Indices that are out of range give zero attributes
+			if (hasNormals && nr >= 0 && nr < nNormals) {
+				normalsFinal[3 * i] = normals[3 * nr];
+				normalsFinal[3 * i + 1] = normals[3 * nr + 1];
+				normalsFinal[3 * i + 2] = normals[3 * nr + 2];
+			}
+			if (hasTexCoords && t >= 0 && t < nTexCoords) {
+				texCoordsFinal[2 * i] = texCoords[2 * t];
+				texCoordsFinal[2 * i + 1] = texCoords[2 * t + 1];
+			}
+		}
+
+		int[] indices = new int[c.indices.size];
+		System.arraycopy(c.indices.data, 0, indices, 0, indices.length);
+
+		VertexData vertexData = new VertexData(n);
+		vertexData.addElement(positionsFinal, VertexData.Semantic.POSITION, 3);
+		if (hasNormals)
+			vertexData.addElement(normalsFinal, VertexData.Semantic.NORMAL, 3);
+		if (hasTexCoords)
+			vertexData.addElement(texCoordsFinal,
+					VertexData.Semantic.TEXCOORD, 2);
+		vertexData.addIndices(indices);
+
+		c.map = new ObjReader.VertexMap(0);
+		c.indices.size = 0;
+		consumer.consume(vertexData);
+	}
+}
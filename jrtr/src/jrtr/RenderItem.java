@@ -15,6 +15,15 @@ public class RenderItem {
 		this.t = t;
 	}
 	
+	/**
+	 * Reuse the render item for another shape.
+	 */
+	public void set(Shape shape, Matrix4f t)
+	{
+		this.shape = shape;
+		this.t = t;
+	}
+	
 	public Shape getShape()
 	{
 		return shape;
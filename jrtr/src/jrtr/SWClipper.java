@@ -0,0 +1,174 @@
+package jrtr;
+
+import javax.vecmath.Matrix4f;
+
+/**
+ * Clips triangles of the software renderer in clip space. A triangle that
+ * lies completely outside of one of the six planes of the view volume is
+ * rejected. A triangle that crosses the near or far plane is clipped against
+ * it with the Sutherland-Hodgman algorithm. The left, right, bottom and top
+ * planes are not clipped against, because the rasterizer clamps the bounding
+ * box to the viewport. Triangles that extend beyond the guard band of the
+ * rasterizer ({@link SWTriangle#GUARD_BAND}) are clipped against the guard
+ * band planes, though.
+ * <p>
+ * Vertices generated by clipping are appended to the {@link SWVertexBuffer}.
+ */
+public class SWClipper {
+
+	private static final int LEFT = 1, RIGHT = 2, BOTTOM = 4, TOP = 8,
+			NEAR = 16, FAR = 32, GUARD_LEFT = 64, GUARD_RIGHT = 128,
+			GUARD_BOTTOM = 256, GUARD_TOP = 512;
+
+	/**
+	 * The planes that triangles are clipped against.
+	 */
+	private static final int CLIP_PLANES = NEAR | FAR | GUARD_LEFT
+			| GUARD_RIGHT | GUARD_BOTTOM | GUARD_TOP;
+
+	/**
+	 * Maximum number of vertices of a clipped triangle.
+	 */
+	public static final int MAX_VERTICES = 3 + 6;
+
+	// Guard band in normalized device coordinates
+	private float guardX, guardY;
+	private int[] polygon, temp;
+
+	public SWClipper() {
+		polygon = new int[MAX_VERTICES];
+		temp = new int[MAX_VERTICES];
+		guardX = guardY = 1;
+	}
+
+	/**
+	 * Set the viewport matrix, which determines the extent of the guard band.
+	 * The guard band is shrunk by a pixel, so rounding errors can not push
+	 * clipped vertices out of it.
+	 */
+	public void setViewport(Matrix4f viewport) {
+		guardX = (SWTriangle.GUARD_BAND - 1 - Math.abs(viewport.m03))
+				/ Math.max(1, Math.abs(viewport.m00));
+		guardY = (SWTriangle.GUARD_BAND - 1 - Math.abs(viewport.m13))
+				/ Math.max(1, Math.abs(viewport.m11));
+	}
+
+	/**
+	 * Compute the planes that a vertex lies outside of.
+	 */
+	private int outcode(SWVertexBuffer vb, int i) {
+		float x = vb.x[i], y = vb.y[i], z = vb.z[i], w = vb.w[i];
+		int code = 0;
+		if (x < -w)
+			code |= LEFT;
+		if (x > w)
+			code |= RIGHT;
+		if (y < -w)
+			code |= BOTTOM;
+		if (y > w)
+			code |= TOP;
+		if (z < -w)
+			code |= NEAR;
+		if (z > w)
+			code |= FAR;
+		if (x < -guardX * w)
+			code |= GUARD_LEFT;
+		if (x > guardX * w)
+			code |= GUARD_RIGHT;
+		if (y < -guardY * w)
+			code |= GUARD_BOTTOM;
+		if (y > guardY * w)
+			code |= GUARD_TOP;
+		return code;
+	}
+
+	/**
+	 * Signed distance of a vertex to a plane. The vertex is inside if the
+	 * distance is not negative.
+	 */
+	private float distance(SWVertexBuffer vb, int i, int plane) {
+		switch (plane) {
+		case NEAR:
+			return vb.z[i] + vb.w[i];
+		case FAR:
+			return vb.w[i] - vb.z[i];
+		case GUARD_LEFT:
+			return vb.x[i] + guardX * vb.w[i];
+		case GUARD_RIGHT:
+			return guardX * vb.w[i] - vb.x[i];
+		case GUARD_BOTTOM:
+			return vb.y[i] + guardY * vb.w[i];
+		default:
+			return guardY * vb.w[i] - vb.y[i];
+		}
+	}
+
+	/**
+	 * Clip a triangle.
+	 *
+	 * @param vb
+	 *            the vertex buffer
+	 * @param i0
+	 *            the index of the first vertex in the vertex buffer
+	 * @param i1
+	 *            the index of the second vertex
+	 * @param i2
+	 *            the index of the third vertex
+	 * @param out
+	 *            receives the indices of the vertices of the clipped polygon,
+	 *            which is convex and has the same orientation as the
+	 *            triangle; must have room for {@link #MAX_VERTICES} indices
+	 * @return the number of vertices of the clipped polygon, or 0 if the
+	 *         triangle is not visible
+	 */
+	public int clip(SWVertexBuffer vb, int i0, int i1, int i2, int[] out) {
+		int c0 = outcode(vb, i0), c1 = outcode(vb, i1), c2 = outcode(vb, i2);
+
+		// Trivial reject
+		if ((c0 & c1 & c2) != 0)
+			return 0;
+
+		out[0] = i0;
+		out[1] = i1;
+		out[2] = i2;
+		int planes = (c0 | c1 | c2) & CLIP_PLANES;
+		if (planes == 0)
+			return 3;
+
+		// Sutherland-Hodgman
+		int[] in = out;
+		int n = 3;
+		for (int plane = NEAR; plane <= GUARD_TOP && n > 0; plane <<= 1) {
+			if ((planes & plane) == 0)
+				continue;
+
+			int[] result = (in == polygon) ? temp : polygon;
+			int m = 0;
+			int a = in[n - 1];
+			float da = distance(vb, a, plane);
+			for (int k = 0; k < n; k++) {
+				int b = in[k];
+				float db = distance(vb, b, plane);
+				if ((da >= 0) != (db >= 0)) {
+					// Always interpolate in the same direction, so both
+					// triangles sharing an edge get the same new vertex
+					result[m++] = da < db ? vb.interpolate(a, b, da
+							/ (da - db)) : vb.interpolate(b, a, db / (db - da));
+				}
+				if (db >= 0) {
+					result[m++] = b;
+				}
+				a = b;
+				da = db;
+			}
+			in = result;
+			n = m;
+		}
+
+		if (n < 3)
+			return 0;
+		if (in != out)
+			System.arraycopy(in, 0, out, 0, n);
+		return n;
+	}
+}
@@ -0,0 +1,71 @@
+package jrtr;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+/**
+ * The frame buffer of the software renderer. It consists of a color buffer
+ * stored in a flat <code>int[]</code> array with one packed RGB value per
+ * pixel, and a depth buffer stored in a flat <code>float[]</code> array.
+ * Both arrays store the pixels row by row, starting with the top row of the
+ * image.
+ * <p>
+ * The color array is the raster of a <code>TYPE_INT_RGB</code>
+ * {@link BufferedImage}, which can be drawn directly without copying.
+ */
+public class SWFrameBuffer {
+
+	private int width, height;
+	private int[] color;
+	private float[] depth;
+	private BufferedImage image;
+
+	/**
+	 * Make a frame buffer of the given size.
+	 */
+	public SWFrameBuffer(int width, int height) {
+		this.width = width;
+		this.height = height;
+		image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		color = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		depth = new float[width * height];
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * @return the packed RGB color of all pixels, row by row
+	 */
+	public int[] getColor() {
+		return color;
+	}
+
+	/**
+	 * @return the depth of all pixels, row by row
+	 */
+	public float[] getDepth() {
+		return depth;
+	}
+
+	/**
+	 * @return an image that shares its pixels with the color buffer
+	 */
+	public BufferedImage getImage() {
+		return image;
+	}
+
+	/**
+	 * Set all pixels to the given color and depth.
+	 */
+	public void clear(int clearColor, float clearDepth) {
+		Arrays.fill(color, clearColor);
+		Arrays.fill(depth, clearDepth);
+	}
+}
@@ -0,0 +1,280 @@
+package jrtr;
+
+/**
+ * Interpolates the varyings of a triangle of the software renderer, like
+ * colors, texture coordinates or normals, perspective correctly along spans
+ * of pixels.
+ * <p>
+ * Varyings are not linear in screen space, but 1/w and the varyings divided
+ * by w are. When a triangle is set up, the screen space derivatives of 1/w
+ * and of each varying divided by w are computed once, which gives a plane
+ * equation for each of them. Along a span, the planes are stepped from pixel
+ * to pixel, and the varyings are recovered by multiplying with w. Hence each
+ * varying costs a few adds and multiplies per pixel, and the division for w
+ * is shared by all varyings. The value at a pixel only depends on its
+ * distance to the first vertex of the triangle, not on where its span
+ * starts, so splitting the viewport into tiles does not change the image.
+ * <p>
+ * The planes are only read while spans are interpolated, so several threads
+ * can interpolate spans of the same triangle at once, each into a
+ * {@link Span} of its own.
+ */
+public class SWInterpolator {
+
+	/**
+	 * The values of 1/w and of the varyings at consecutive pixels of a row,
+	 * stored as a structure of arrays. The arrays may be longer than the
+	 * span.
+	 */
+	public static class Span {
+		/**
+		 * The window coordinates of the first pixel.
+		 */
+		public int x, y;
+
+		/**
+		 * The number of pixels.
+		 */
+		public int length;
+
+		/**
+		 * 1/w and w at each pixel.
+		 */
+		public float[] invW, w;
+
+		/**
+		 * Varying k at pixel j of the span is <code>varyings[k][j]</code>.
+		 */
+		public float[][] varyings;
+
+		/**
+		 * The color of each pixel, for shading stages like
+		 * {@link SWLighting} that compute it in several passes.
+		 */
+		public float[] r, g, b;
+
+		public Span() {
+			invW = new float[0];
+			w = new float[0];
+			r = g = b = w;
+			varyings = new float[0][];
+		}
+
+		/**
+		 * Make sure that the span has room for the given number of pixels
+		 * and varyings.
+		 */
+		private void reserve(int length, int n) {
+			if (length > invW.length) {
+				invW = new float[length];
+				w = new float[length];
+				r = new float[length];
+				g = new float[length];
+				b = new float[length];
+				for (int k = 0; k < varyings.length; k++) {
+					varyings[k] = new float[length];
+				}
+			}
+			if (n > varyings.length) {
+				float[][] v = new float[n][];
+				System.arraycopy(varyings, 0, v, 0, varyings.length);
+				for (int k = varyings.length; k < n; k++) {
+					v[k] = new float[invW.length];
+				}
+				varyings = v;
+			}
+		}
+	}
+
+	private int n;
+
+	// The planes are p(x,y) = p + dx * (x - xr) + dy * (y - yr), where
+	// (xr,yr) is the first vertex
+	private float xr, yr;
+	private float invW, invWdx, invWdy;
+	private float[] p, dx, dy;
+
+	// 1/w at the vertices, and the derivatives of the barycentric
+	// coordinates of the second and third vertex
+	private float w0, w1, w2;
+	private float dx1, dx2, dy1, dy2;
+
+	public SWInterpolator() {
+		p = new float[0];
+		dx = new float[0];
+		dy = new float[0];
+	}
+
+	/**
+	 * Set up the plane of 1/w for a triangle. The vertices must not lie on a
+	 * line.
+	 *
+	 * @param x0
+	 *            the window x coordinate of the first vertex
+	 * @param y0
+	 *            the window y coordinate of the first vertex
+	 * @param invW0
+	 *            1/w at the first vertex
+	 */
+	public void setup(float x0, float y0, float invW0, float x1, float y1,
+			float invW1, float x2, float y2, float invW2) {
+		double area = (double) (x1 - x0) * (y2 - y0) - (double) (x2 - x0)
+				* (y1 - y0);
+		dx1 = (float) ((y2 - y0) / area);
+		dx2 = (float) (-(y1 - y0) / area);
+		dy1 = (float) (-(x2 - x0) / area);
+		dy2 = (float) ((x1 - x0) / area);
+		xr = x0;
+		yr = y0;
+		w0 = invW0;
+		w1 = invW1;
+		w2 = invW2;
+
+		invW = invW0;
+		invWdx = dx1 * (invW1 - invW0) + dx2 * (invW2 - invW0);
+		invWdy = dy1 * (invW1 - invW0) + dy2 * (invW2 - invW0);
+		n = 0;
+	}
+
+	/**
+	 * Set the number of varyings. Their planes are set with
+	 * {@link #setVarying(int, float, float, float)}.
+	 */
+	public void setVaryingCount(int n) {
+		if (n > p.length) {
+			p = new float[n];
+			dx = new float[n];
+			dy = new float[n];
+		}
+		this.n = n;
+	}
+
+	public int getVaryingCount() {
+		return n;
+	}
+
+	/**
+	 * Set up the plane of varying k from its values at the vertices.
+	 */
+	public void setVarying(int k, float v0, float v1, float v2) {
+		float q0 = v0 * w0, q1 = v1 * w1 - q0, q2 = v2 * w2 - q0;
+		p[k] = q0;
+		dx[k] = dx1 * q1 + dx2 * q2;
+		dy[k] = dy1 * q1 + dy2 * q2;
+	}
+
+	/**
+	 * @return the derivative of 1/w in x
+	 */
+	public float getInvWDx() {
+		return invWdx;
+	}
+
+	/**
+	 * @return the derivative of 1/w in y
+	 */
+	public float getInvWDy() {
+		return invWdy;
+	}
+
+	/**
+	 * @return the derivative of varying k divided by w in x
+	 */
+	public float getDx(int k) {
+		return dx[k];
+	}
+
+	/**
+	 * @return the derivative of varying k divided by w in y
+	 */
+	public float getDy(int k) {
+		return dy[k];
+	}
+
+	/**
+	 * Compute the level of detail for sampling a texture at a pixel, i.e.,
+	 * the logarithm of the larger of the lengths of the screen space
+	 * derivatives of the texture coordinates in x and y, measured in pixels
+	 * of the texture image.
+	 *
+	 * @param ku
+	 *            the varying that holds the u texture coordinate
+	 * @param kv
+	 *            the varying that holds the v texture coordinate
+	 * @param u
+	 *            the u texture coordinate at the pixel
+	 * @param v
+	 *            the v texture coordinate at the pixel
+	 * @param invW
+	 *            1/w at the pixel
+	 * @param width
+	 *            the width of the texture image
+	 * @param height
+	 *            the height of the texture image
+	 */
+	public float getLod(int ku, int kv, float u, float v, float invW,
+			float width, float height) {
+		// The derivative of u = (u/w) / (1/w) is (d(u/w) - u * d(1/w)) /
+		// (1/w), and the same for v
+		float su = u * width, sv = v * height;
+		float ux = width * dx[ku] - su * invWdx;
+		float vx = height * dx[kv] - sv * invWdx;
+		float uy = width * dy[ku] - su * invWdy;
+		float vy = height * dy[kv] - sv * invWdy;
+		float rho = Math.max(ux * ux + vx * vx, uy * uy + vy * vy)
+				/ (invW * invW);
+		return 0.5f * SWTexture.log2(rho);
+	}
+
+	/**
+	 * Start a span and interpolate 1/w and w along it. The varyings are
+	 * interpolated separately by {@link #interpolate(Span)}, so they can be
+	 * skipped if the depth test fails for the whole span.
+	 *
+	 * @param span
+	 *            receives the values
+	 * @param x
+	 *            the window x coordinate of the first pixel
+	 * @param y
+	 *            the window y coordinate of the pixels
+	 * @param length
+	 *            the number of pixels
+	 */
+	public void begin(Span span, int x, int y, int length) {
+		span.reserve(length, n);
+		span.x = x;
+		span.y = y;
+		span.length = length;
+
+		float[] invWs = span.invW, ws = span.w;
+		float d = invWdx;
+		float q = invW + invWdy * (y - yr);
+		float o = x - xr;
+		for (int j = 0; j < length; j++) {
+			float f = q + d * o;
+			invWs[j] = f;
+			ws[j] = 1 / f;
+			o++;
+		}
+	}
+
+	/**
+	 * Interpolate the varyings along a span started by
+	 * {@link #begin(Span, int, int, int)}.
+	 */
+	public void interpolate(Span span) {
+		float ox = span.x - xr, oy = span.y - yr;
+		float[] ws = span.w;
+		int length = span.length;
+		for (int k = 0; k < n; k++) {
+			float[] v = span.varyings[k];
+			float d = dx[k];
+			float q = p[k] + dy[k] * oy;
+			float o = ox;
+			for (int j = 0; j < length; j++) {
+				v[j] = (q + d * o) * ws[j];
+				o++;
+			}
+		}
+	}
+}
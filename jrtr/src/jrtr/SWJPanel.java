@@ -74,7 +74,8 @@ public class SWJPanel extends JPanel {
 	public void paintComponent(Graphics g)
 	{
 		renderContext.display();
-		((Graphics2D)g).drawImage(renderContext.getColorBuffer(), null, 0, 0);
+		if(renderContext.getColorBuffer() != null)
+			((Graphics2D)g).drawImage(renderContext.getColorBuffer(), null, 0, 0);
 	}
 	
 	public void reshape()
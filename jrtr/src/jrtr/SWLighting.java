@@ -0,0 +1,340 @@
+package jrtr;
+
+import java.util.Iterator;
+
+import javax.vecmath.Matrix4f;
+import javax.vecmath.Vector3f;
+
+/**
+ * Lights the pixels of the software renderer, like the fixed function
+ * lighting of OpenGL and <code>shaders/phong.frag</code> do on the GPU. The
+ * color of a pixel is the ambient light of the scene and of all lights times
+ * the ambient color of the material, plus the Lambert diffuse and Blinn-Phong
+ * specular reflection of each light. Directional, point and spot lights are
+ * supported; light is not attenuated with distance. As in OpenGL, all terms
+ * of a spot light, including its ambient light, are scaled by the spot
+ * factor, so it adds no light outside of its cone.
+ * <p>
+ * The lights are set once per frame. Their positions and directions are in
+ * world space and are transformed to view space by the camera matrix, like
+ * {@link GLRenderContext} does, and all their parameters are packed into
+ * one float array. Pixels are lit a span at a time: the
+ * contribution of each light is added to all pixels of the span in a loop
+ * specialized for the type of the light, so the inner loops do not branch
+ * on the light.
+ * <p>
+ * The lights are only read while pixels are lit, so several threads can
+ * light spans at once.
+ */
+public class SWLighting {
+
+	/**
+	 * Maximum number of lights, as in OpenGL.
+	 */
+	public static final int MAX_LIGHTS = 8;
+
+	/**
+	 * Ambient light of the scene, the default of OpenGL.
+	 */
+	public static final float SCENE_AMBIENT = 0.2f;
+
+	// Layout of a light in the packed array: the position, or the unit
+	// direction towards a directional light, the unit spot direction, the
+	// ambient, diffuse and specular color, and the cosine of the spot cutoff
+	// and the spot exponent
+	private static final int POSITION = 0, SPOT_DIRECTION = 3, AMBIENT = 6,
+			DIFFUSE = 9, SPECULAR = 12, SPOT_COS = 15, SPOT_EXPONENT = 16,
+			STRIDE = 17;
+
+	private int count;
+	private Light.Type[] types;
+	private float[] lights;
+	private float ambientR, ambientG, ambientB;
+	private Vector3f v;
+
+	public SWLighting() {
+		types = new Light.Type[MAX_LIGHTS];
+		lights = new float[MAX_LIGHTS * STRIDE];
+		v = new Vector3f();
+	}
+
+	/**
+	 * Set the lights of a frame. Only the first {@link #MAX_LIGHTS} lights
+	 * are used.
+	 *
+	 * @param iterator
+	 *            the lights, in world space
+	 * @param camera
+	 *            the world-to-view space transformation
+	 */
+	public void setLights(Iterator<Light> iterator, Matrix4f camera) {
+		count = 0;
+		ambientR = ambientG = ambientB = SCENE_AMBIENT;
+		while (iterator.hasNext() && count < MAX_LIGHTS) {
+			Light l = iterator.next();
+			int o = count * STRIDE;
+			types[count] = l.type;
+
+			if (l.type == Light.Type.DIRECTIONAL) {
+				v.set(l.direction);
+				camera.transform(v);
+				normalize(v);
+			} else {
+				v.set(l.position);
+				camera.transform(v);
+				v.x += camera.m03;
+				v.y += camera.m13;
+				v.z += camera.m23;
+			}
+			put(v, o + POSITION);
+			v.set(l.spotDirection);
+			camera.transform(v);
+			normalize(v);
+			put(v, o + SPOT_DIRECTION);
+			put(l.ambient, o + AMBIENT);
+			put(l.diffuse, o + DIFFUSE);
+			put(l.specular, o + SPECULAR);
+
+			// A cutoff of 180 degrees or more turns a spot into a point light
+			if (l.type == Light.Type.SPOT && l.spotCutoff >= 180)
+				types[count] = Light.Type.POINT;
+			lights[o + SPOT_COS] = (float) Math.cos(Math
+					.toRadians(l.spotCutoff));
+			lights[o + SPOT_EXPONENT] = l.spotExponent;
+
+			// The ambient light of spots depends on the pixel
+			if (types[count] != Light.Type.SPOT) {
+				ambientR += l.ambient.x;
+				ambientG += l.ambient.y;
+				ambientB += l.ambient.z;
+			}
+			count++;
+		}
+	}
+
+	private void put(Vector3f v, int o) {
+		lights[o] = v.x;
+		lights[o + 1] = v.y;
+		lights[o + 2] = v.z;
+	}
+
+	private static void normalize(Vector3f v) {
+		if (v.lengthSquared() > 0)
+			v.normalize();
+	}
+
+	/**
+	 * @return the number of lights of the frame
+	 */
+	public int getLightCount() {
+		return count;
+	}
+
+	/**
+	 * @return the type of light l; spots with a cutoff of 180 degrees or
+	 *         more are point lights
+	 */
+	public Light.Type getType(int l) {
+		return types[l];
+	}
+
+	/**
+	 * The accessors of the light parameters return 0 for lights beyond the
+	 * number of lights, so shaders that always use a fixed number of lights
+	 * do not need to check it.
+	 *
+	 * @return component c of the view space position of light l, or of the
+	 *         unit direction towards it if it is directional
+	 */
+	public float getPosition(int l, int c) {
+		return get(l, POSITION + c);
+	}
+
+	/**
+	 * @return component c of the diffuse color of light l
+	 */
+	public float getDiffuse(int l, int c) {
+		return get(l, DIFFUSE + c);
+	}
+
+	/**
+	 * @return component c of the specular color of light l
+	 */
+	public float getSpecular(int l, int c) {
+		return get(l, SPECULAR + c);
+	}
+
+	/**
+	 * @return component c of the ambient color of light l
+	 */
+	public float getAmbient(int l, int c) {
+		return get(l, AMBIENT + c);
+	}
+
+	private float get(int l, int i) {
+		return l < count ? lights[l * STRIDE + i] : 0;
+	}
+
+	/**
+	 * Light a span. The color of each pixel is stored in the r, g and b
+	 * arrays of the span, not clamped.
+	 *
+	 * @param span
+	 *            the span, whose varyings must be interpolated
+	 * @param first
+	 *            the index of the first of six varyings that hold the view
+	 *            space normal and position; the normals are normalized in
+	 *            place
+	 * @param material
+	 *            the material
+	 */
+	public void shade(SWInterpolator.Span span, int first, Material material) {
+		int length = span.length;
+		float[] nx = span.varyings[first];
+		float[] ny = span.varyings[first + 1];
+		float[] nz = span.varyings[first + 2];
+		float[] r = span.r, g = span.g, b = span.b;
+
+		float ar = ambientR * material.ambient.x;
+		float ag = ambientG * material.ambient.y;
+		float ab = ambientB * material.ambient.z;
+		for (int j = 0; j < length; j++) {
+			float s = nx[j] * nx[j] + ny[j] * ny[j] + nz[j] * nz[j];
+			s = s > 0 ? (float) (1 / Math.sqrt(s)) : 0;
+			nx[j] *= s;
+			ny[j] *= s;
+			nz[j] *= s;
+			r[j] = ar;
+			g[j] = ag;
+			b[j] = ab;
+		}
+
+		for (int l = 0; l < count; l++) {
+			if (types[l] == Light.Type.DIRECTIONAL)
+				directional(span, first, l * STRIDE, material);
+			else
+				local(span, first, l * STRIDE, material,
+						types[l] == Light.Type.SPOT);
+		}
+	}
+
+	/**
+	 * Add the light of a directional light to a span.
+	 */
+	private void directional(SWInterpolator.Span span, int first, int o,
+			Material material) {
+		float[] nx = span.varyings[first];
+		float[] ny = span.varyings[first + 1];
+		float[] nz = span.varyings[first + 2];
+		float[] px = span.varyings[first + 3];
+		float[] py = span.varyings[first + 4];
+		float[] pz = span.varyings[first + 5];
+		float[] r = span.r, g = span.g, b = span.b;
+		float lx = lights[o + POSITION];
+		float ly = lights[o + POSITION + 1];
+		float lz = lights[o + POSITION + 2];
+		float dr = lights[o + DIFFUSE] * material.diffuse.x;
+		float dg = lights[o + DIFFUSE + 1] * material.diffuse.y;
+		float db = lights[o + DIFFUSE + 2] * material.diffuse.z;
+		float sr = lights[o + SPECULAR] * material.specular.x;
+		float sg = lights[o + SPECULAR + 1] * material.specular.y;
+		float sb = lights[o + SPECULAR + 2] * material.specular.z;
+		double shininess = material.shininess;
+
+		for (int j = 0; j < span.length; j++) {
+			float nDotL = nx[j] * lx + ny[j] * ly + nz[j] * lz;
+			if (nDotL <= 0)
+				continue;
+
+			// The half vector between the light and the eye, which is at
+			// the origin of view space
+			float e = (float) (1 / Math.sqrt(px[j] * px[j] + py[j] * py[j]
+					+ pz[j] * pz[j]));
+			float hx = lx - px[j] * e, hy = ly - py[j] * e, hz = lz - pz[j] * e;
+			float spec = specular(nx[j] * hx + ny[j] * hy + nz[j] * hz,
+					hx * hx + hy * hy + hz * hz, shininess);
+
+			r[j] += dr * nDotL + sr * spec;
+			g[j] += dg * nDotL + sg * spec;
+			b[j] += db * nDotL + sb * spec;
+		}
+	}
+
+	/**
+	 * Add the light of a point or spot light to a span.
+	 */
+	private void local(SWInterpolator.Span span, int first, int o,
+			Material material, boolean spot) {
+		float[] nx = span.varyings[first];
+		float[] ny = span.varyings[first + 1];
+		float[] nz = span.varyings[first + 2];
+		float[] px = span.varyings[first + 3];
+		float[] py = span.varyings[first + 4];
+		float[] pz = span.varyings[first + 5];
+		float[] r = span.r, g = span.g, b = span.b;
+		float lpx = lights[o + POSITION];
+		float lpy = lights[o + POSITION + 1];
+		float lpz = lights[o + POSITION + 2];
+		float sdx = lights[o + SPOT_DIRECTION];
+		float sdy = lights[o + SPOT_DIRECTION + 1];
+		float sdz = lights[o + SPOT_DIRECTION + 2];
+		float spotCos = lights[o + SPOT_COS];
+		double spotExponent = lights[o + SPOT_EXPONENT];
+		float ar = lights[o + AMBIENT] * material.ambient.x;
+		float ag = lights[o + AMBIENT + 1] * material.ambient.y;
+		float ab = lights[o + AMBIENT + 2] * material.ambient.z;
+		float dr = lights[o + DIFFUSE] * material.diffuse.x;
+		float dg = lights[o + DIFFUSE + 1] * material.diffuse.y;
+		float db = lights[o + DIFFUSE + 2] * material.diffuse.z;
+		float sr = lights[o + SPECULAR] * material.specular.x;
+		float sg = lights[o + SPECULAR + 1] * material.specular.y;
+		float sb = lights[o + SPECULAR + 2] * material.specular.z;
+		double shininess = material.shininess;
+
+		for (int j = 0; j < span.length; j++) {
+			float lx = lpx - px[j], ly = lpy - py[j], lz = lpz - pz[j];
+			float d = lx * lx + ly * ly + lz * lz;
+			if (!(d > 0))
+				continue;
+			d = (float) (1 / Math.sqrt(d));
+			lx *= d;
+			ly *= d;
+			lz *= d;
+
+			float f = 1;
+			if (spot) {
+				float c = -(lx * sdx + ly * sdy + lz * sdz);
+				if (c < spotCos)
+					continue;
+				f = (float) Math.pow(c, spotExponent);
+				r[j] += f * ar;
+				g[j] += f * ag;
+				b[j] += f * ab;
+			}
+
+			float nDotL = nx[j] * lx + ny[j] * ly + nz[j] * lz;
+			if (nDotL <= 0)
+				continue;
+
+			float e = (float) (1 / Math.sqrt(px[j] * px[j] + py[j] * py[j]
+					+ pz[j] * pz[j]));
+			float hx = lx - px[j] * e, hy = ly - py[j] * e, hz = lz - pz[j] * e;
+			float spec = specular(nx[j] * hx + ny[j] * hy + nz[j] * hz,
+					hx * hx + hy * hy + hz * hz, shininess);
+
+			r[j] += f * (dr * nDotL + sr * spec);
+			g[j] += f * (dg * nDotL + sg * spec);
+			b[j] += f * (db * nDotL + sb * spec);
+		}
+	}
+
+	/**
+	 * Blinn-Phong specular term, given the dot product of the unit normal
+	 * with the half vector and the squared length of the half vector.
+	 */
+	private static float specular(float nDotH, float h2, double shininess) {
+		if (nDotH <= 0 || !(h2 > 0))
+			return 0;
+		return (float) Math.pow(nDotH / Math.sqrt(h2), shininess);
+	}
+}
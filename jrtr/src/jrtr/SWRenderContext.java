@@ -2,19 +2,9 @@ package jrtr;
 
 import jrtr.RenderContext;
 
-import java.awt.Color;
 import java.awt.image.*;
-import java.util.ArrayList;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.ListIterator;
 
-import javax.vecmath.Color3f;
-import javax.vecmath.Matrix3f;
 import javax.vecmath.Matrix4f;
-import javax.vecmath.SingularMatrixException;
-import javax.vecmath.TexCoord2f;
-import javax.vecmath.Vector4f;
 
 /**
  * A skeleton for a software renderer. It works in combination with
@@ -23,29 +13,95 @@ import javax.vecmath.Vector4f;
  * <p>
  * To use the software renderer, you will simply replace {@link GLRenderPanel}
  * with {@link SWRenderPanel} in the user application.
+ * <p>
+ * The triangles of all objects are collected during a frame and rasterized
+ * together at the end of the frame by a {@link SWTileRasterizer}. By default
+ * the viewport is split into tiles which are rasterized in parallel; see
+ * {@link #setTiledRasterization(boolean)}.
+ * <p>
+ * The vertices of each object are transformed once into a
+ * {@link SWVertexBuffer}, and the triangles are assembled from the indices
+ * and clipped in clip space by a {@link SWClipper}.
+ * If the scene has lights, objects with normals are lit per pixel by a
+ * {@link SWLighting}, using their {@link Material}, or a default material if
+ * they have none. Materials with an {@link SWShader} are shaded by its
+ * program instead.
+ * The vertex buffer and the triangles are reused from frame to frame, so
+ * rendering a frame does not allocate memory once the buffers have grown to
+ * the size of the scene.
  */
 public class SWRenderContext implements RenderContext {
 
 	private SceneManagerInterface sceneManager;
-	private BufferedImage colorBuffer, texture;
-	private Matrix4f matVP;
-	private List<Vector4f> edges;
-	private List<Color3f> colors;
-	private List<TexCoord2f> texCoords;
+	private SWFrameBuffer frameBuffer;
+	private Matrix4f matVP, matMVP, matMV;
 	private int aWidth, aHeight;
-	private float[][] zBuffer;
-	private RenderItem renderItem;
+	private SWVertexBuffer vertices;
+	private SWTriangle[] triangles;
+	private int triangleCount;
+	private SWTileRasterizer rasterizer;
+	private SWVertexCache vertexCache;
+	private int[] slots;
+	private SWClipper clipper;
+	private int[] polygon;
+	private SWLighting lighting;
+	private Material defaultMaterial;
+
+	public SWRenderContext() {
+		matMVP = new Matrix4f();
+		matMV = new Matrix4f();
+		lighting = new SWLighting();
+		defaultMaterial = new Material();
+		vertices = new SWVertexBuffer();
+		triangles = new SWTriangle[1024];
+		rasterizer = new SWTileRasterizer();
+		clipper = new SWClipper();
+		polygon = new int[SWClipper.MAX_VERTICES];
+	}
 
 	public void setSceneManager(SceneManagerInterface sceneManager) {
 		this.sceneManager = sceneManager;
 	}
 
+	/**
+	 * Enable or disable tiled rasterization. In tiled mode the viewport is
+	 * split into tiles of {@link SWTileRasterizer#TILE_SIZE} pixels, which
+	 * are rasterized in parallel. The image is identical in both modes.
+	 */
+	public void setTiledRasterization(boolean tiled) {
+		rasterizer.setTiled(tiled);
+	}
+
+	public boolean isTiledRasterization() {
+		return rasterizer.isTiled();
+	}
+
+	/**
+	 * Transform vertices on demand through a FIFO post-transform vertex cache
+	 * with the given number of entries. Only vertices that are referenced by
+	 * the indices are transformed, but a vertex is transformed again if it
+	 * was evicted from the cache. Use {@link MeshOptimizer} to reorder the
+	 * indices for the cache. If the size is zero (the default), every vertex
+	 * of an object is transformed exactly once.
+	 */
+	public void setVertexCacheSize(int size) {
+		vertexCache = size > 0 ? new SWVertexCache(size) : null;
+	}
+
+	/**
+	 * @return the average number of vertices transformed per triangle in the
+	 *         last frame, if the vertex cache is enabled
+	 */
+	public float getVertexCacheACMR() {
+		return vertexCache != null ? vertexCache.getACMR() : 0;
+	}
+
 	/**
 	 * This is called by the SWRenderPanel to render the scene to the software
 	 * frame buffer.
 	 */
 	public void display() {
-		if (sceneManager == null)
+		if (sceneManager == null || frameBuffer == null)
 			return;
 
 		beginFrame();
@@ -60,10 +116,11 @@ public class SWRenderContext implements RenderContext {
 
 	/**
 	 * This is called by the {@link SWJPanel} to obtain the color buffer that
-	 * will be displayed.
+	 * will be displayed. The image shares its pixels with the
+	 * {@link SWFrameBuffer}, so it is not copied.
 	 */
 	public BufferedImage getColorBuffer() {
-		return colorBuffer;
+		return frameBuffer != null ? frameBuffer.getImage() : null;
 	}
 
 	/**
@@ -81,306 +138,167 @@ public class SWRenderContext implements RenderContext {
 		matVP.setM13((height - 1) / 2);
 		matVP.setM22(1);
 		matVP.setM33(1);
-
-		colorBuffer = new BufferedImage(width, height,
-				BufferedImage.TYPE_3BYTE_BGR);
+		clipper.setViewport(matVP);
+
+		rasterizer.setViewportSize(width, height);
+		if (width <= 0 || height <= 0) {
+			frameBuffer = null;
+		} else if (frameBuffer == null || frameBuffer.getWidth() != width
+				|| frameBuffer.getHeight() != height) {
+			frameBuffer = new SWFrameBuffer(width, height);
+		}
 	}
 
 	/**
-	 * Clear the framebuffer here.
+	 * Clear the framebuffer here. The depth buffer stores 1/w, hence it is
+	 * cleared to zero, i.e., infinitely far away. The lights are transformed
+	 * to view space once for the whole frame.
 	 */
 	private void beginFrame() {
+		frameBuffer.clear(0, 0);
+		vertices.clear();
+		triangleCount = 0;
+		lighting.setLights(sceneManager.lightIterator(), sceneManager
+				.getCamera().getCameraMatrix());
+		if (vertexCache != null)
+			vertexCache.resetStatistics();
 	}
 
+	/**
+	 * Rasterize all triangles of the frame into the frame buffer.
+	 */
 	private void endFrame() {
+		rasterizer.rasterize(triangles, triangleCount, frameBuffer);
 	}
 
 	/**
-	 * The main rendering method. You will need to implement this to draw 3D
-	 * objects.
+	 * The main rendering method. Transforms the vertices of the object and
+	 * adds its triangles to the triangles of the current frame.
 	 */
 	private void draw(RenderItem renderItem) {
-		this.renderItem = renderItem;
-		this.edges = new ArrayList<Vector4f>();
-		this.colors = new ArrayList<Color3f>();
-		this.texCoords = new ArrayList<TexCoord2f>();
 		VertexData vertexData = renderItem.getShape().getVertexData();
-		zBuffer = new float[aWidth][aHeight];
-		for (int i = 0; i < aWidth; i++) {
-			for (int j = 0; j < aHeight; j++) {
-				zBuffer[i][j] = Float.MAX_VALUE;
-			}
-		}
-
-		projection(vertexData);
-		rasterization(renderItem, vertexData);
-		textures(renderItem);
-
-		System.out.println("Done");
-	}
-
-	private void textures(RenderItem item) {
-		// Preparing texture
-		Texture tex = item.getShape().getMaterial().texture;
-		if (tex instanceof SWTexture) {
-			texture = ((SWTexture) tex).getTexture();
-		}
-	}
-
-	private void rasterization(RenderItem item, VertexData data) {
-
-		for (int i = 0; i < edges.size(); i++) {
-
-			Color3f aCol = this.colors.get(i);
-			// TexCoord2f aTex = this.texCoords.get(i);
-			Vector4f a = this.edges.get(i++);
-			Color3f bCol = this.colors.get(i);
-			// TexCoord2f bTex = this.texCoords.get(i);
-			Vector4f b = this.edges.get(i++);
-			Color3f cCol = this.colors.get(i);
-			// TexCoord2f cTex = this.texCoords.get(i);
-			Vector4f c = this.edges.get(i);
-
-			// calculate edge functions
-			Matrix3f coefficients;
-			coefficients = new Matrix3f();
-			coefficients.setM00(a.getX());
-			coefficients.setM01(a.getY());
-			coefficients.setM02(a.getW());
-			coefficients.setM10(b.getX());
-			coefficients.setM11(b.getY());
-			coefficients.setM12(b.getW());
-			coefficients.setM20(c.getX());
-			coefficients.setM21(c.getY());
-			coefficients.setM22(c.getW());
-
-			boolean singular = false;
-
-			try {
-				coefficients.invert();
-			} catch (SingularMatrixException exc) {
-				singular = true;
-			}
-
-			if (!singular) {
-
-				if (checkConditions(a, b, c)) {
-
-					System.out.println("Calculating a bounding box");
-					// calculate bounding box
-					int xLeft, yTop, xRight, yBottom;
-
-					xLeft = min(a.getX(), b.getX(), c.getX());
-					yTop = max(a.getY(), b.getY(), c.getY());
-					xRight = max(a.getX(), b.getX(), c.getX());
-					yBottom = min(a.getY(), b.getY(), c.getY());
-
-					if (i > 37) {
-
-						drawing(coefficients, xLeft, xRight, yTop, yBottom, a,
-								b, c);
-					} else {
-						drawing(coefficients, xLeft, xRight, yTop, yBottom, a,
-								b, c, aCol);
-					}
-
-				} else {
-					drawing(coefficients, 0, aWidth, aHeight, 0, a, b, c, aCol);
-					System.out.println("Not all vertices in view");
-				}
-			}
-		}
-	}
-
-	private boolean checkConditions(Vector4f a, Vector4f b, Vector4f c) {
-		return a.getX() > 0 && b.getX() > 0 && c.getX() > 0 && a.getY() > 0
-				&& b.getY() > 0 && c.getY() > 0;
-	}
-
-	private void drawing(Matrix3f coefficients, int xLeft, int xRight,
-			int yTop, int yBottom, Vector4f a, Vector4f b, Vector4f c,
-			Color3f col) {
-		for (int j = xLeft; j < xRight; j++) {
-			for (int k = yTop; k > yBottom; k--) {
-				// Interpolate w
-				float Z_Slope = (float) (1 / b.z - 1 / a.z)
-						/ (float) (b.x - a.x);
-				float z = a.z + ((j - a.x) * Z_Slope);
-				// calculate whether to paint
-				float alpha = coefficients.m00 * j / z + coefficients.m10 * k
-						/ z + coefficients.m20;
-				float beta = coefficients.m01 * j / z + coefficients.m11 * k
-						/ z + coefficients.m21;
-				float gamma = coefficients.m02 * j / z + coefficients.m12 * k
-						/ z + coefficients.m22;
-
-				if (alpha > 0 && beta > 0 && gamma > 0) {
-					drawPixel((int) (j / z), (int) (k / z), 1 / z, col);
-				}
-			}
-		}
-	}
-
-	private void drawing(Matrix3f coefficients, int xLeft, int xRight,
-			int yTop, int yBottom, Vector4f a, Vector4f b, Vector4f c) {
-
-		Texture tex = this.renderItem.getShape().getMaterial().texture;
-		BufferedImage im = null;
-		if (tex instanceof SWTexture) {
-			im = ((SWTexture) tex).getTexture();
-		}
-
-		for (int j = xLeft; j < xRight; j++) {
-			for (int k = yTop; k > yBottom; k--) {
-				// Interpolate w
-				float Z_Slope = (float) (1 / b.z - 1 / a.z)
-						/ (float) (b.x - a.x);
-				float z = a.z + ((j - a.x) * Z_Slope);
-				// calculate whether to paint
-				float alpha = coefficients.m00 * j / z + coefficients.m10 * k
-						/ z + coefficients.m20;
-				float beta = coefficients.m01 * j / z + coefficients.m11 * k
-						/ z + coefficients.m21;
-				float gamma = coefficients.m02 * j / z + coefficients.m12 * k
-						/ z + coefficients.m22;
-
-				if (alpha > 0 && beta > 0 && gamma > 0) {
-
-					try {
-						int col = im.getRGB((int) (j / z), (int) (k / z));
-						drawPixel((int) (j / z), (int) (k / z), 1 / z, col);
-					} catch (ArrayIndexOutOfBoundsException exc) {
-						System.out.println("catch");
-						int col = im.getRGB(0,0);
-						drawPixel((int) (j / z), (int) (k / z), 1 / z, col);
-					}
-
-				}
-			}
-		}
-	}
-
-	/**
-	 * 3D to 2D Projection
-	 * 
-	 * @param vertexData
-	 */
-	private void projection(VertexData vertexData) {
-		LinkedList<VertexData.VertexElement> vertexElements = vertexData
-				.getElements();
-
 		int indices[] = vertexData.getIndices();
+		int count = vertexData.getIndexCount();
 
 		// Don't draw if there are no indices
-		if (indices == null)
+		if (count == 0)
 			return;
 
-		float x, y, z, w;
-		Vector4f vec;
-		Matrix4f mat, matPro, matCam;
-		matCam = sceneManager.getCamera().getCameraMatrix();
-		matPro = sceneManager.getFrustum().getProjectionMatrix();
-		mat = new Matrix4f();
-		mat.set(matVP);
-		mat.mul(matPro);
-		mat.mul(matCam);
-
-		for (int j = 0; j < indices.length; j++) {
-			int i = indices[j];
-			ListIterator<VertexData.VertexElement> itr = vertexElements
-					.listIterator(0);
-			while (itr.hasNext()) {
-				VertexData.VertexElement e = itr.next();
-
-				if (e.getSemantic() == VertexData.Semantic.POSITION) {
-					x = e.getData()[i * 3];
-					y = e.getData()[i * 3 + 1];
-					z = e.getData()[i * 3 + 2];
-					w = 1;
-					vec = new Vector4f(x, y, z, w);
-					mat.transform(vec);
-
-					// Add as homogenous coordinate before homogenous division
-					this.edges.add(new Vector4f(vec));
-
-				} else if (e.getSemantic() == VertexData.Semantic.COLOR) {
-					Color3f col = new Color3f(e.getData()[i * 3],
-							e.getData()[i * 3 + 1], e.getData()[i * 3 + 2]);
-					this.colors.add(col);
-				} else if (e.getSemantic() == VertexData.Semantic.NORMAL) {
-
-				} else if (e.getSemantic() == VertexData.Semantic.TEXCOORD) {
-					System.out.println("TexCoord");
-					TexCoord2f tex = new TexCoord2f(e.getData()[i * 2], e
-							.getData()[i * 2 + 1]);
-					this.texCoords.add(tex);
+		Material material = renderItem.getShape().getMaterial();
+		SWShader.Program program = null;
+		if (material != null && material.shader instanceof SWShader)
+			program = ((SWShader) material.shader).getProgram();
+
+		// Object-to-view and object-to-clip space transformation
+		matMV.set(sceneManager.getCamera().getCameraMatrix());
+		if (renderItem.getT() != null)
+			matMV.mul(renderItem.getT());
+		matMVP.set(sceneManager.getFrustum().getProjectionMatrix());
+		matMVP.mul(matMV);
+		boolean view = lighting.getLightCount() > 0 || program != null;
+		vertices.setModelView(view ? matMV : null);
+		vertices.setVaryingCount(program != null ? program
+				.getVaryingCount() : 0);
+
+		if (slots == null || slots.length < count)
+			slots = new int[count];
+		// The vertices of the object are appended to the buffer, so the
+		// vertex stage of the program runs on all of them at once
+		int first = vertices.size();
+		if (vertexCache != null) {
+			vertices.add(vertexData, matMVP, vertexCache, slots);
+			if (program != null)
+				program.vertex(vertices, first, vertices.size() - first,
+						lighting);
+			assembly(renderItem, program, slots, count, 0);
+		} else {
+			int base = vertices.add(vertexData, matMVP);
+			if (program != null)
+				program.vertex(vertices, first, vertices.size() - first,
+						lighting);
+			if (indices == null) {
+				// 16 bit indices are widened into the slots
+				for (int j = 0; j < count; j++) {
+					slots[j] = vertexData.getIndex(j);
 				}
-
+				indices = slots;
 			}
+			assembly(renderItem, program, indices, count, base);
 		}
 	}
 
-	private void drawPixel(int x, int y, float z, Color3f col) {
-		if (this.zBuffer[x][y] > z) {
-			this.zBuffer[x][y] = z;
-			try {
-				int color = (int) (255f * col.x) << 16
-						| (int) (255f * col.y) << 8 | (int) (255f * col.z);
-				colorBuffer.setRGB(x, aHeight - y, color);
-			} catch (ArrayIndexOutOfBoundsException exc) {
-				System.out.println("Error at pixel: x=" + x + " y=" + y);
-			}
+	/**
+	 * Assemble the transformed vertices to triangles.
+	 *
+	 * @param program
+	 *            the shader program of the object, or null
+	 * @param indices
+	 *            three indices per triangle
+	 * @param count
+	 *            the number of indices
+	 * @param base
+	 *            the index of the first vertex of the object in the vertex
+	 *            buffer, which is added to the indices
+	 */
+	private void assembly(RenderItem item, SWShader.Program program,
+			int[] indices, int count, int base) {
+		SWTexture texture = null;
+		Material material = item.getShape().getMaterial();
+		if (material != null && material.texture instanceof SWTexture
+				&& (vertices.hasTexCoords() || program != null)) {
+			texture = (SWTexture) material.texture;
+			if (!texture.update())
+				texture = null;
 		}
-	}
-
-	private void drawPixel(int x, int y, float z, int col) {
-		if (this.zBuffer[x][y] > z) {
-			this.zBuffer[x][y] = z;
-			try {
-				// int color = (int)(255f*col.x)<<16 | (int)(255f*col.y)<<8 |
-				// (int)(255f*col.z);
-				colorBuffer.setRGB(x, aHeight - y, col);
-			} catch (ArrayIndexOutOfBoundsException exc) {
-				System.out.println("Error at pixel: x=" + x + " y=" + y);
+		Material.CullMode cullMode = material != null ? material.cullMode
+				: Material.CullMode.NONE;
+		SWLighting lit = vertices.hasNormals() || program != null ? lighting
+				: null;
+		if (material == null)
+			material = defaultMaterial;
+
+		for (int i = 0; i + 2 < count; i += 3) {
+			int n = clipper.clip(vertices, base + indices[i], base
+					+ indices[i + 1], base + indices[i + 2], polygon);
+
+			// Triangulate the clipped polygon as a fan
+			for (int k = 1; k + 1 < n; k++) {
+				addTriangle(polygon[0], polygon[k], polygon[k + 1], texture,
+						cullMode, lit, material, program);
 			}
 		}
 	}
 
-	private int min(float a, float b, float c) {
-		if (a < b) {
-			if (a < c) {
-				return (int) a;
-			}
-		} else {
-			if (b < c) {
-				return (int) b;
-			}
+	private void addTriangle(int i0, int i1, int i2, SWTexture texture,
+			Material.CullMode cullMode, SWLighting lighting,
+			Material material, SWShader.Program program) {
+		if (triangleCount == triangles.length) {
+			SWTriangle[] t = new SWTriangle[2 * triangles.length];
+			System.arraycopy(triangles, 0, t, 0, triangleCount);
+			triangles = t;
 		}
-		return (int) c;
-	}
-
-	private int max(float a, float b, float c) {
-		if (a > b) {
-			if (a > c) {
-				return (int) a;
-			}
-		} else {
-			if (b > c) {
-				return (int) b;
-			}
+		SWTriangle t = triangles[triangleCount];
+		if (t == null) {
+			t = new SWTriangle();
+			triangles[triangleCount] = t;
 		}
-		return (int) c;
+		t.setup(vertices, i0, i1, i2, matVP, aWidth, aHeight, texture,
+				cullMode, lighting, material, program);
+		if (!t.isEmpty())
+			triangleCount++;
 	}
 
 	/**
-	 * Does nothing. We will not implement shaders for the software renderer.
+	 * Make a shader that selects the Java port of a shader program when it
+	 * is loaded, see {@link SWShader}.
 	 */
 	public Shader makeShader() {
 		return new SWShader();
 	}
 
 	/**
-	 * Does nothing. We will not implement textures for the software renderer.
+	 * Make a texture that is sampled from a chain of mipmap levels, with the
+	 * filter and texel layout it is set to, see {@link SWTexture}.
 	 */
 	public Texture makeTexture() {
 		return new SWTexture();
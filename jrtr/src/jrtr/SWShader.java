@@ -1,18 +1,372 @@
 package jrtr;
 
+import java.io.File;
+
 /**
- * Manages shaders for the software renderer. Not implemented here.
+ * Shaders for the software renderer. Loading a shader selects one of the
+ * Java ports of the shader programs in the <code>shaders</code> directory by
+ * the name of the fragment shader file, so a {@link Material} with a shader
+ * renders the same on the {@link GLRenderContext} and the
+ * {@link SWRenderContext}: "simple", "diffuse", "phong" and "texture2D" are
+ * available. Other programs can be set with {@link #setProgram(Program)}.
+ * <p>
+ * A shader program is run on whole batches instead of single vertices and
+ * pixels. The vertex stage computes the varyings of a range of vertices,
+ * which are stored as a structure of arrays in the {@link SWVertexBuffer},
+ * and the fragment stage computes the colors of a span of pixels, whose
+ * varyings are interpolated into an {@link SWInterpolator.Span}. Hence a
+ * program is called once per span, and its loops over the pixels of a span
+ * only call into the same program, so the JIT compiler can inline them.
  */
 public class SWShader implements Shader {
 
-	public void disable() {
+	/**
+	 * A vertex and fragment program. Spans of the same triangle are shaded
+	 * on several threads at once, hence programs must not store state in
+	 * fields while they run.
+	 */
+	public interface Program {
+
+		/**
+		 * @return the number of varyings per vertex
+		 */
+		int getVaryingCount();
+
+		/**
+		 * Compute the varyings of a range of vertices. The inputs of the
+		 * vertices are the arrays of the vertex buffer: their clip space
+		 * positions, which are computed by the renderer, their view space
+		 * positions and normals, colors and texture coordinates.
+		 *
+		 * @param vb
+		 *            the vertex buffer, which receives the varyings
+		 * @param first
+		 *            the index of the first vertex
+		 * @param count
+		 *            the number of vertices
+		 * @param lighting
+		 *            the lights of the frame
+		 */
+		void vertex(SWVertexBuffer vb, int first, int count,
+				SWLighting lighting);
+
+		/**
+		 * Compute the colors of a span of pixels, and store them, not
+		 * clamped, in the r, g and b arrays of the span.
+		 *
+		 * @param span
+		 *            the span, whose varyings are interpolated
+		 * @param interpolator
+		 *            the interpolator of the triangle, which gives the
+		 *            derivatives of the varyings
+		 * @param material
+		 *            the material
+		 * @param texture
+		 *            the texture of the material, or null
+		 * @param lighting
+		 *            the lights of the frame
+		 */
+		void fragment(SWInterpolator.Span span, SWInterpolator interpolator,
+				Material material, SWTexture texture, SWLighting lighting);
 	}
 
+	private Program program;
+
+	/**
+	 * Select the port of a shader program. Only the name of the fragment
+	 * shader file is used; the files are not read.
+	 *
+	 * @throws Exception
+	 *             if there is no port of the program
+	 */
 	public void load(String vertexFileName, String fragmentFileName)
 			throws Exception {
+		String name = new File(fragmentFileName.replace('\\', '/')).getName();
+		int dot = name.lastIndexOf('.');
+		if (dot >= 0)
+			name = name.substring(0, dot);
+
+		if (name.equals("simple"))
+			program = new Simple();
+		else if (name.equals("diffuse"))
+			program = new Diffuse();
+		else if (name.equals("phong"))
+			program = new Phong();
+		else if (name.equals("texture2D"))
+			program = new Texture2D();
+		else
+			throw new Exception("No software shader for " + fragmentFileName);
+	}
+
+	/**
+	 * @return the program, or null if none has been loaded
+	 */
+	public Program getProgram() {
+		return program;
 	}
 
+	public void setProgram(Program program) {
+		this.program = program;
+	}
+
+	/**
+	 * Does nothing, the program is selected by the material of each shape.
+	 */
 	public void use() {
 	}
 
-}
\ No newline at end of file
+	public void disable() {
+	}
+
+	/**
+	 * Port of <code>simple.vert</code> and <code>simple.frag</code>, which
+	 * draw everything in blue.
+	 */
+	public static class Simple implements Program {
+
+		public int getVaryingCount() {
+			return 0;
+		}
+
+		public void vertex(SWVertexBuffer vb, int first, int count,
+				SWLighting lighting) {
+		}
+
+		public void fragment(SWInterpolator.Span span,
+				SWInterpolator interpolator, Material material,
+				SWTexture texture, SWLighting lighting) {
+			for (int j = 0; j < span.length; j++) {
+				span.r[j] = 0;
+				span.g[j] = 0;
+				span.b[j] = 1;
+			}
+		}
+	}
+
+	/**
+	 * Port of <code>diffuse.vert</code> and <code>diffuse.frag</code>, per
+	 * pixel diffuse shading with the first light.
+	 */
+	public static class Diffuse implements Program {
+
+		// Varyings: the unit normal and the unit direction to the light
+		private static final int NORMAL = 0, LIGHT_DIR = 3;
+
+		public int getVaryingCount() {
+			return 6;
+		}
+
+		public void vertex(SWVertexBuffer vb, int first, int count,
+				SWLighting lighting) {
+			float lx = lighting.getPosition(0, 0);
+			float ly = lighting.getPosition(0, 1);
+			float lz = lighting.getPosition(0, 2);
+			float l = inverseLength(lx, ly, lz);
+			lx *= l;
+			ly *= l;
+			lz *= l;
+
+			float[][] v = vb.varyings;
+			float[] nx = v[NORMAL], ny = v[NORMAL + 1], nz = v[NORMAL + 2];
+			float[] dx = v[LIGHT_DIR], dy = v[LIGHT_DIR + 1];
+			float[] dz = v[LIGHT_DIR + 2];
+			for (int i = first; i < first + count; i++) {
+				float n = inverseLength(vb.nx[i], vb.ny[i], vb.nz[i]);
+				nx[i] = vb.nx[i] * n;
+				ny[i] = vb.ny[i] * n;
+				nz[i] = vb.nz[i] * n;
+				dx[i] = lx;
+				dy[i] = ly;
+				dz[i] = lz;
+			}
+		}
+
+		public void fragment(SWInterpolator.Span span,
+				SWInterpolator interpolator, Material material,
+				SWTexture texture, SWLighting lighting) {
+			float[][] v = span.varyings;
+			float[] nx = v[NORMAL], ny = v[NORMAL + 1], nz = v[NORMAL + 2];
+			float[] dx = v[LIGHT_DIR], dy = v[LIGHT_DIR + 1];
+			float[] dz = v[LIGHT_DIR + 2];
+			float dr = lighting.getDiffuse(0, 0) * material.diffuse.x;
+			float dg = lighting.getDiffuse(0, 1) * material.diffuse.y;
+			float db = lighting.getDiffuse(0, 2) * material.diffuse.z;
+
+			for (int j = 0; j < span.length; j++) {
+				float l = inverseLength(dx[j], dy[j], dz[j]);
+				float nDotL = (nx[j] * dx[j] + ny[j] * dy[j] + nz[j] * dz[j])
+						* l;
+				nDotL = Math.max(nDotL, 0);
+				span.r[j] = dr * nDotL;
+				span.g[j] = dg * nDotL;
+				span.b[j] = db * nDotL;
+			}
+		}
+	}
+
+	/**
+	 * Port of <code>phong.vert</code> and <code>phong.frag</code>, per pixel
+	 * Phong shading with the first two lights.
+	 */
+	public static class Phong implements Program {
+
+		// Varyings: the normal, the directions to the two lights and the
+		// direction to the eye, none of them normalized
+		private static final int NORMAL = 0, LIGHT_DIR1 = 3, LIGHT_DIR2 = 6,
+				EYE = 9;
+
+		public int getVaryingCount() {
+			return 12;
+		}
+
+		public void vertex(SWVertexBuffer vb, int first, int count,
+				SWLighting lighting) {
+			float[][] v = vb.varyings;
+			float l1x = lighting.getPosition(0, 0);
+			float l1y = lighting.getPosition(0, 1);
+			float l1z = lighting.getPosition(0, 2);
+			float l2x = lighting.getPosition(1, 0);
+			float l2y = lighting.getPosition(1, 1);
+			float l2z = lighting.getPosition(1, 2);
+
+			for (int i = first; i < first + count; i++) {
+				float x = vb.ex[i], y = vb.ey[i], z = vb.ez[i];
+				v[NORMAL][i] = vb.nx[i];
+				v[NORMAL + 1][i] = vb.ny[i];
+				v[NORMAL + 2][i] = vb.nz[i];
+				v[LIGHT_DIR1][i] = l1x - x;
+				v[LIGHT_DIR1 + 1][i] = l1y - y;
+				v[LIGHT_DIR1 + 2][i] = l1z - z;
+				v[LIGHT_DIR2][i] = l2x - x;
+				v[LIGHT_DIR2 + 1][i] = l2y - y;
+				v[LIGHT_DIR2 + 2][i] = l2z - z;
+				v[EYE][i] = -x;
+				v[EYE + 1][i] = -y;
+				v[EYE + 2][i] = -z;
+			}
+		}
+
+		public void fragment(SWInterpolator.Span span,
+				SWInterpolator interpolator, Material material,
+				SWTexture texture, SWLighting lighting) {
+			float[][] v = span.varyings;
+			float[] r = span.r, g = span.g, b = span.b;
+
+			// The ambient light of the scene, as it is in
+			// gl_FrontLightModelProduct.sceneColor, is multiplied with the
+			// ambient material color once more, like in phong.frag
+			float ar = (SWLighting.SCENE_AMBIENT * material.ambient.x
+					+ lighting.getAmbient(0, 0) + lighting.getAmbient(1, 0))
+					* material.ambient.x;
+			float ag = (SWLighting.SCENE_AMBIENT * material.ambient.y
+					+ lighting.getAmbient(0, 1) + lighting.getAmbient(1, 1))
+					* material.ambient.y;
+			float ab = (SWLighting.SCENE_AMBIENT * material.ambient.z
+					+ lighting.getAmbient(0, 2) + lighting.getAmbient(1, 2))
+					* material.ambient.z;
+			for (int j = 0; j < span.length; j++) {
+				r[j] = ar;
+				g[j] = ag;
+				b[j] = ab;
+			}
+
+			light(span, LIGHT_DIR1, 0, material, lighting);
+			light(span, LIGHT_DIR2, 1, material, lighting);
+		}
+
+		/**
+		 * Add the diffuse and specular light of one light to a span.
+		 */
+		private void light(SWInterpolator.Span span, int lightDir, int l,
+				Material material, SWLighting lighting) {
+			float[][] v = span.varyings;
+			float[] nx = v[NORMAL], ny = v[NORMAL + 1], nz = v[NORMAL + 2];
+			float[] lx = v[lightDir], ly = v[lightDir + 1];
+			float[] lz = v[lightDir + 2];
+			float[] ex = v[EYE], ey = v[EYE + 1], ez = v[EYE + 2];
+			float[] r = span.r, g = span.g, b = span.b;
+			float dr = lighting.getDiffuse(l, 0) * material.diffuse.x;
+			float dg = lighting.getDiffuse(l, 1) * material.diffuse.y;
+			float db = lighting.getDiffuse(l, 2) * material.diffuse.z;
+			float sr = lighting.getSpecular(l, 0) * material.specular.x;
+			float sg = lighting.getSpecular(l, 1) * material.specular.y;
+			float sb = lighting.getSpecular(l, 2) * material.specular.z;
+			double shininess = material.shininess;
+
+			for (int j = 0; j < span.length; j++) {
+				// Normalize the normal and the light direction
+				float n = inverseLength(nx[j], ny[j], nz[j]);
+				float x = nx[j] * n, y = ny[j] * n, z = nz[j] * n;
+				float d = inverseLength(lx[j], ly[j], lz[j]);
+				float dx = lx[j] * d, dy = ly[j] * d, dz = lz[j] * d;
+
+				float nDotL = x * dx + y * dy + z * dz;
+				if (nDotL <= 0)
+					continue;
+
+				// The reflection of the light direction, reflect(-L, N)
+				float rx = 2 * nDotL * x - dx;
+				float ry = 2 * nDotL * y - dy;
+				float rz = 2 * nDotL * z - dz;
+				float e = inverseLength(ex[j], ey[j], ez[j]);
+				float rDotE = (rx * ex[j] + ry * ey[j] + rz * ez[j]) * e;
+				float spec = (float) Math.pow(Math.max(rDotE, 0), shininess);
+
+				r[j] += dr * nDotL + sr * spec;
+				g[j] += dg * nDotL + sg * spec;
+				b[j] += db * nDotL + sb * spec;
+			}
+		}
+	}
+
+	/**
+	 * Port of <code>texture2D.vert</code> and <code>texture2D.frag</code>,
+	 * which look up the texture without lighting. Pixels are black if the
+	 * material has no texture.
+	 */
+	public static class Texture2D implements Program {
+
+		public int getVaryingCount() {
+			return 2;
+		}
+
+		public void vertex(SWVertexBuffer vb, int first, int count,
+				SWLighting lighting) {
+			System.arraycopy(vb.u, first, vb.varyings[0], first, count);
+			System.arraycopy(vb.v, first, vb.varyings[1], first, count);
+		}
+
+		public void fragment(SWInterpolator.Span span,
+				SWInterpolator interpolator, Material material,
+				SWTexture texture, SWLighting lighting) {
+			float[] u = span.varyings[0], v = span.varyings[1];
+			float[] r = span.r, g = span.g, b = span.b;
+			if (texture == null) {
+				for (int j = 0; j < span.length; j++) {
+					r[j] = g[j] = b[j] = 0;
+				}
+				return;
+			}
+
+			float tw = texture.getWidth(0), th = texture.getHeight(0);
+			boolean mipmapped = texture.isMipmapped();
+			for (int j = 0; j < span.length; j++) {
+				float lod = mipmapped ? interpolator.getLod(0, 1, u[j], v[j],
+						span.invW[j], tw, th) : 0;
+				int c = texture.sample(u[j], v[j], lod);
+				r[j] = ((c >> 16) & 0xff) * (1 / 255.f);
+				g[j] = ((c >> 8) & 0xff) * (1 / 255.f);
+				b[j] = (c & 0xff) * (1 / 255.f);
+			}
+		}
+	}
+
+	/**
+	 * @return the inverse of the length of a vector, or 0 for the zero
+	 *         vector
+	 */
+	private static float inverseLength(float x, float y, float z) {
+		float s = x * x + y * y + z * z;
+		return s > 0 ? (float) (1 / Math.sqrt(s)) : 0;
+	}
+}
@@ -1,10 +1,6 @@
-
-
 package jrtr;
 
-import java.awt.Graphics;
 import java.awt.Graphics2D;
-import java.awt.Image;
 import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
 import java.io.File;
@@ -13,32 +9,413 @@ import java.io.IOException;
 import javax.imageio.ImageIO;
 
 /**
- * Manages textures for the software renderer. Not implemented here.
+ * Manages textures for the software renderer. The image is converted once
+ * into a chain of mipmap levels, each stored as a flat array of ARGB pixels
+ * row by row, starting with the top row. Level 0 is the image itself, scaled
+ * to the next power of two in each dimension if necessary, and each further
+ * level is half as large as the previous one in each dimension (but at least
+ * one pixel), down to 1x1 pixels. Each pixel of a level is the average of
+ * the 2x2 pixels it covers in the previous level.
+ * <p>
+ * Because the sizes are powers of two, texel addresses are computed in fixed
+ * point with shifts and masks, without branches that depend on the texture
+ * coordinates. Colors are blended with two 8 bit channels per int operation.
+ * <p>
+ * The pixels of the levels can be stored in different orders, see
+ * {@link Layout}. The offset of a pixel is the bitwise or of a part that
+ * depends on its column and a part that depends on its row, which are looked
+ * up in tables per level.
  */
 public class SWTexture implements Texture {
 
+    /**
+     * How texture coordinates outside of [0,1] are mapped into the texture.
+     */
+    public enum Wrap {
+        /** The texture is repeated. */
+        REPEAT,
+        /** The pixels at the edge are repeated. */
+        CLAMP
+    }
+
+    /**
+     * The order in which the pixels of a level are stored.
+     */
+    public enum Layout {
+        /** Row by row. */
+        LINEAR,
+        /**
+         * In tiles of 4x4 pixels, i.e., 64 bytes, which are stored row by
+         * row. The pixels within a tile are also stored row by row.
+         */
+        TILED,
+        /**
+         * In Morton order (Z-order), which interleaves the bits of the column
+         * and the row, so pixels that are close to each other in any
+         * direction are mostly close in memory. If the level is not square,
+         * the remaining bits of the larger dimension are the top bits.
+         */
+        MORTON
+    }
+
+    /**
+     * How textures are sampled.
+     */
+    public enum Filter {
+        /** The nearest pixel of the image. */
+        NEAREST,
+        /** Bilinear interpolation of the image. */
+        BILINEAR,
+        /** The nearest pixel of the nearest mipmap level. */
+        NEAREST_MIPMAP,
+        /**
+         * Bilinear interpolation in the two nearest mipmap levels, and
+         * linear interpolation between them.
+         */
+        TRILINEAR
+    }
+
     public BufferedImage texture;
 
+    private BufferedImage source;
+    private int[][] levels;
+    private int[] widths, heights;
+    private int[][] xOffsets, yOffsets;
+    private Filter filter;
+    private Wrap wrap;
+    private Layout layout;
+
+    public SWTexture() {
+        filter = Filter.TRILINEAR;
+        wrap = Wrap.REPEAT;
+        layout = Layout.LINEAR;
+    }
+
     public BufferedImage getTexture() {
         return texture;
     }
 
     public void setTexture(BufferedImage texture) {
         this.texture = texture;
+        update();
     }
 
     public void load(String fileName) throws IOException {
         File f = new File(fileName);
         BufferedImage im = ImageIO.read(f);
-        texture = im;
-//        texture = new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB);
-
-        // Paint scaled version of image to new image
-//        Graphics2D graphics2D = texture.createGraphics();
-//        graphics2D.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
-//                RenderingHints.VALUE_INTERPOLATION_BILINEAR);
-//        graphics2D.drawImage(im, 0, 0, im.getWidth(), im.getHeight(), null);
-//
-//        graphics2D.dispose();
+        setTexture(im);
+    }
+
+    public void setFilter(Filter filter) {
+        this.filter = filter;
+    }
+
+    public Filter getFilter() {
+        return filter;
+    }
+
+    public void setWrap(Wrap wrap) {
+        this.wrap = wrap;
+    }
+
+    public Wrap getWrap() {
+        return wrap;
+    }
+
+    /**
+     * Set the order in which the pixels are stored. The levels are built
+     * again the next time they are used.
+     */
+    public void setLayout(Layout layout) {
+        if (this.layout != layout) {
+            this.layout = layout;
+            source = null;
+        }
+    }
+
+    public Layout getLayout() {
+        return layout;
+    }
+
+    /**
+     * @return true if sampling uses the level of detail
+     */
+    public boolean isMipmapped() {
+        return filter == Filter.NEAREST_MIPMAP || filter == Filter.TRILINEAR;
+    }
+
+    /**
+     * Build the mipmap levels, if the image changed since they were built.
+     *
+     * @return false if there is no image
+     */
+    public boolean update() {
+        if (texture == null) {
+            levels = null;
+            source = null;
+            return false;
+        }
+        if (texture == source)
+            return true;
+
+        int w = Integer.highestOneBit(texture.getWidth());
+        int h = Integer.highestOneBit(texture.getHeight());
+        if (w < texture.getWidth())
+            w *= 2;
+        if (h < texture.getHeight())
+            h *= 2;
+        int n = 1;
+        while ((w >> n) > 0 || (h >> n) > 0)
+            n++;
+        levels = new int[n][];
+        widths = new int[n];
+        heights = new int[n];
+        xOffsets = new int[n][];
+        yOffsets = new int[n][];
+
+        BufferedImage im = texture;
+        if (w != im.getWidth() || h != im.getHeight()) {
+            // Paint scaled version of image to new image
+            im = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D graphics2D = im.createGraphics();
+            graphics2D.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                    RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics2D.drawImage(texture, 0, 0, w, h, null);
+            graphics2D.dispose();
+        }
+        levels[0] = im.getRGB(0, 0, w, h, null, 0, w);
+        widths[0] = w;
+        heights[0] = h;
+        for (int l = 1; l < n; l++) {
+            widths[l] = Math.max(1, widths[l - 1] / 2);
+            heights[l] = Math.max(1, heights[l - 1] / 2);
+            levels[l] = downsample(levels[l - 1], widths[l - 1],
+                    heights[l - 1], widths[l], heights[l]);
+        }
+
+        // Reorder the pixels
+        for (int l = 0; l < n; l++) {
+            makeOffsets(l);
+            if (layout != Layout.LINEAR) {
+                int[] linear = levels[l];
+                int[] p = new int[linear.length];
+                for (int y = 0; y < heights[l]; y++) {
+                    for (int x = 0; x < widths[l]; x++) {
+                        p[xOffsets[l][x] | yOffsets[l][y]] = linear[y
+                                * widths[l] + x];
+                    }
+                }
+                levels[l] = p;
+            }
+        }
+        source = texture;
+        return true;
+    }
+
+    private void makeOffsets(int l) {
+        int w = widths[l], h = heights[l];
+        int lw = Integer.numberOfTrailingZeros(w);
+        int lh = Integer.numberOfTrailingZeros(h);
+        xOffsets[l] = new int[w];
+        yOffsets[l] = new int[h];
+        for (int x = 0; x < w; x++) {
+            xOffsets[l][x] = offset(x, lw, lh, false);
+        }
+        for (int y = 0; y < h; y++) {
+            yOffsets[l][y] = offset(y, lh, lw, true);
+        }
+    }
+
+    /**
+     * Compute the part of the offset of a pixel that depends on one of its
+     * coordinates.
+     *
+     * @param i
+     *            the column or row
+     * @param bits
+     *            the binary logarithm of the size in this dimension
+     * @param otherBits
+     *            the binary logarithm of the size in the other dimension
+     * @param row
+     *            true if i is the row
+     */
+    private int offset(int i, int bits, int otherBits, boolean row) {
+        switch (layout) {
+        case TILED: {
+            // Binary logarithms of the tile width and height, which are
+            // smaller than 4 for small levels
+            int tw = Math.min(2, row ? otherBits : bits);
+            int th = Math.min(2, row ? bits : otherBits);
+            if (row)
+                return ((i >> th) << (otherBits + th))
+                        | ((i & ((1 << th) - 1)) << tw);
+            return ((i >> tw) << (tw + th)) | (i & ((1 << tw) - 1));
+        }
+        case MORTON: {
+            int m = Math.min(bits, otherBits);
+            int o = 0;
+            for (int b = 0; b < m; b++) {
+                o |= ((i >> b) & 1) << (2 * b + (row ? 1 : 0));
+            }
+            return o | ((i >> m) << (2 * m));
+        }
+        default:
+            return row ? i << otherBits : i;
+        }
+    }
+
+    private static int[] downsample(int[] src, int sw, int sh, int w, int h) {
+        int[] dst = new int[w * h];
+        for (int y = 0; y < h; y++) {
+            int y0 = Math.min(2 * y, sh - 1) * sw;
+            int y1 = Math.min(2 * y + 1, sh - 1) * sw;
+            for (int x = 0; x < w; x++) {
+                int x0 = Math.min(2 * x, sw - 1);
+                int x1 = Math.min(2 * x + 1, sw - 1);
+                int p0 = src[y0 + x0], p1 = src[y0 + x1];
+                int p2 = src[y1 + x0], p3 = src[y1 + x1];
+                int c = 0;
+                for (int shift = 0; shift < 32; shift += 8) {
+                    int sum = ((p0 >>> shift) & 0xff) + ((p1 >>> shift) & 0xff)
+                            + ((p2 >>> shift) & 0xff)
+                            + ((p3 >>> shift) & 0xff);
+                    c |= ((sum + 2) >> 2) << shift;
+                }
+                dst[y * w + x] = c;
+            }
+        }
+        return dst;
+    }
+
+    /**
+     * @return the number of mipmap levels
+     */
+    public int getLevelCount() {
+        return levels != null ? levels.length : 0;
+    }
+
+    /**
+     * @return the pixels of a mipmap level, in the order of the layout
+     */
+    public int[] getLevel(int level) {
+        return levels[level];
+    }
+
+    /**
+     * @return the offset of a pixel in a mipmap level, with row 0 at the top
+     */
+    public int getOffset(int level, int x, int y) {
+        return xOffsets[level][x] | yOffsets[level][y];
+    }
+
+    public int getWidth(int level) {
+        return widths[level];
+    }
+
+    public int getHeight(int level) {
+        return heights[level];
+    }
+
+    /**
+     * Sample the texture with its filter.
+     *
+     * @param u
+     *            the horizontal texture coordinate, 0 at the left edge
+     * @param v
+     *            the vertical texture coordinate, 0 at the bottom edge
+     * @param lod
+     *            the level of detail, i.e., the binary logarithm of the
+     *            number of pixels of the image per screen pixel; only used
+     *            if the texture is mipmapped
+     * @return the ARGB color
+     */
+    public int sample(float u, float v, float lod) {
+        switch (filter) {
+        case NEAREST:
+            return nearest(0, u, v);
+        case BILINEAR:
+            return bilinear(0, u, v);
+        case NEAREST_MIPMAP:
+            return nearest(level(lod + 0.5f), u, v);
+        default:
+            if (!(lod > 0))
+                return bilinear(0, u, v);
+            int l = level(lod);
+            if (l == levels.length - 1)
+                return bilinear(l, u, v);
+            int f = (int) ((lod - l) * 256);
+            return lerp(bilinear(l, u, v), bilinear(l + 1, u, v), f);
+        }
+    }
+
+    private int level(float lod) {
+        if (!(lod > 0))
+            return 0;
+        return Math.min((int) lod, levels.length - 1);
+    }
+
+    private int nearest(int l, float u, float v) {
+        int x = (int) (u * (widths[l] << 8)) >> 8;
+        int y = (int) ((1 - v) * (heights[l] << 8)) >> 8;
+        return fetch(l, x, y);
+    }
+
+    private int bilinear(int l, float u, float v) {
+        // Fixed point coordinates with 8 fractional bits, relative to the
+        // texel centers. The arithmetic shift rounds down for negative
+        // coordinates, too.
+        int x = (int) (u * (widths[l] << 8)) - 128;
+        int y = (int) ((1 - v) * (heights[l] << 8)) - 128;
+        int fx = x & 0xff, fy = y & 0xff;
+        x >>= 8;
+        y >>= 8;
+
+        int top = lerp(fetch(l, x, y), fetch(l, x + 1, y), fx);
+        int bottom = lerp(fetch(l, x, y + 1), fetch(l, x + 1, y + 1), fx);
+        return lerp(top, bottom, fy);
+    }
+
+    /**
+     * Fetch a pixel of a level, mapping its coordinates into the level.
+     */
+    private int fetch(int l, int x, int y) {
+        int w = widths[l], h = heights[l];
+        if (wrap == Wrap.REPEAT) {
+            x &= w - 1;
+            y &= h - 1;
+        } else {
+            x = clamp(x, w - 1);
+            y = clamp(y, h - 1);
+        }
+        return levels[l][xOffsets[l][x] | yOffsets[l][y]];
+    }
+
+    /**
+     * Interpolate two ARGB colors with a weight between 0 and 256. Red and
+     * blue, and alpha and green, are blended together, each channel in 16
+     * bits of an int, so a channel never overflows into the next one.
+     */
+    private static int lerp(int c0, int c1, int f) {
+        int g = 256 - f;
+        int rb = (((c0 & 0x00ff00ff) * g + (c1 & 0x00ff00ff) * f) >>> 8) & 0x00ff00ff;
+        int ag = ((c0 >>> 8) & 0x00ff00ff) * g + ((c1 >>> 8) & 0x00ff00ff) * f;
+        return (ag & 0xff00ff00) | rb;
+    }
+
+    /**
+     * Clamp to [0,max] without branches.
+     */
+    private static int clamp(int i, int max) {
+        i &= ~(i >> 31);
+        int d = i - max;
+        return i - (d & ~(d >> 31));
+    }
+
+    /**
+     * A fast approximation of the binary logarithm of a positive float, which
+     * is exact at powers of two and linear in between.
+     */
+    public static float log2(float f) {
+        return Float.floatToRawIntBits(f) * (1.f / (1 << 23)) - 127;
     }
 }
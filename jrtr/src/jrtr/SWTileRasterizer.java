@@ -0,0 +1,208 @@
+package jrtr;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Rasterizes all triangles of a frame for the {@link SWRenderContext}. The
+ * viewport is divided into square tiles. Each triangle is binned into the
+ * tiles its bounding box overlaps, and the tiles are then rasterized
+ * independently on a fork-join pool. Every tile owns its own color and depth
+ * buffer, so no synchronization is needed while rasterizing. A tile loads its
+ * pixels from the {@link SWFrameBuffer} before rasterizing and stores them
+ * back afterwards; since tiles do not overlap they can do so concurrently.
+ * <p>
+ * Within a tile the triangles are processed in the order in which they were
+ * submitted. The output is therefore deterministic and identical to the
+ * single-threaded mode, which rasterizes one tile covering the whole viewport
+ * on the calling thread.
+ */
+public class SWTileRasterizer {
+
+	/**
+	 * Default width and height of a tile in pixels.
+	 */
+	public static final int TILE_SIZE = 32;
+
+	/**
+	 * A rectangle of pixels with its own color and depth buffer, span buffer
+	 * and the list of triangles that overlap it.
+	 */
+	private class Tile extends RecursiveAction {
+
+		static final long serialVersionUID = 0;
+
+		private int x0, y0, w, h;
+		private int[] color;
+		private float[] depth;
+		private SWInterpolator.Span span;
+		private int[] bin;
+		private int binSize;
+
+		public Tile(int x0, int y0, int w, int h) {
+			this.x0 = x0;
+			this.y0 = y0;
+			this.w = w;
+			this.h = h;
+			color = new int[w * h];
+			depth = new float[w * h];
+			span = new SWInterpolator.Span();
+			bin = new int[16];
+		}
+
+		public void add(int triangle) {
+			if (binSize == bin.length) {
+				int[] b = new int[bin.length * 2];
+				System.arraycopy(bin, 0, b, 0, binSize);
+				bin = b;
+			}
+			bin[binSize++] = triangle;
+		}
+
+		protected void compute() {
+			if (binSize == 0)
+				return;
+
+			copy(true);
+			for (int i = 0; i < binSize; i++) {
+				triangles[bin[i]].rasterize(x0, y0, w, h, color, depth,
+						span);
+			}
+			copy(false);
+		}
+
+		/**
+		 * Copy the pixels of the tile from or to the frame buffer. Window
+		 * coordinates have their origin in the lower left corner, the frame
+		 * buffer starts with the top row.
+		 */
+		private void copy(boolean load) {
+			int[] fbColor = frameBuffer.getColor();
+			float[] fbDepth = frameBuffer.getDepth();
+			for (int r = 0; r < h; r++) {
+				int offset = (height - 1 - (y0 + r)) * width + x0;
+				if (load) {
+					System.arraycopy(fbColor, offset, color, r * w, w);
+					System.arraycopy(fbDepth, offset, depth, r * w, w);
+				} else {
+					System.arraycopy(color, r * w, fbColor, offset, w);
+					System.arraycopy(depth, r * w, fbDepth, offset, w);
+				}
+			}
+		}
+	}
+
+	private ForkJoinPool pool;
+	private Tile[] tiles;
+	private int tilesX, tilesY;
+	private int width, height;
+	private boolean tiled;
+	private SWTriangle[] triangles;
+	private SWFrameBuffer frameBuffer;
+	private RecursiveAction rasterizeTiles;
+
+	public SWTileRasterizer() {
+		tiled = true;
+		rasterizeTiles = new RecursiveAction() {
+			static final long serialVersionUID = 0;
+
+			protected void compute() {
+				invokeAll(tiles);
+			}
+		};
+	}
+
+	/**
+	 * Enable or disable tiled, parallel rasterization. If disabled, the frame
+	 * is rasterized as one big tile on the calling thread.
+	 */
+	public void setTiled(boolean tiled) {
+		if (this.tiled != tiled) {
+			this.tiled = tiled;
+			setViewportSize(width, height);
+		}
+	}
+
+	public boolean isTiled() {
+		return tiled;
+	}
+
+	/**
+	 * Set a new viewport size. This reallocates the tiles.
+	 */
+	public void setViewportSize(int width, int height) {
+		this.width = width;
+		this.height = height;
+
+		int size = tiled ? TILE_SIZE : Math.max(width, height);
+		if (size <= 0) {
+			tilesX = tilesY = 0;
+			tiles = new Tile[0];
+			return;
+		}
+		tilesX = (width + size - 1) / size;
+		tilesY = (height + size - 1) / size;
+		tiles = new Tile[tilesX * tilesY];
+		for (int ty = 0; ty < tilesY; ty++) {
+			for (int tx = 0; tx < tilesX; tx++) {
+				int x0 = tx * size;
+				int y0 = ty * size;
+				tiles[ty * tilesX + tx] = new Tile(x0, y0, Math.min(size,
+						width - x0), Math.min(size, height - y0));
+			}
+		}
+		if (tiled && pool == null) {
+			pool = new ForkJoinPool();
+		}
+	}
+
+	/**
+	 * Rasterize triangles into the frame buffer.
+	 *
+	 * @param triangles
+	 *            the triangles, in drawing order
+	 * @param count
+	 *            the number of triangles in the array
+	 * @param frameBuffer
+	 *            the frame buffer
+	 */
+	public void rasterize(SWTriangle[] triangles, int count,
+			SWFrameBuffer frameBuffer) {
+		this.triangles = triangles;
+		this.frameBuffer = frameBuffer;
+		int size = tiled ? TILE_SIZE : Math.max(width, height);
+
+		// Bin the triangles into the tiles they overlap
+		for (int i = 0; i < tiles.length; i++) {
+			tiles[i].binSize = 0;
+		}
+		for (int i = 0; i < count; i++) {
+			SWTriangle t = triangles[i];
+			if (t.isEmpty())
+				continue;
+			int txs = t.getXMin() / size, txe = t.getXMax() / size;
+			int tys = t.getYMin() / size, tye = t.getYMax() / size;
+			for (int ty = tys; ty <= tye; ty++) {
+				for (int tx = txs; tx <= txe; tx++) {
+					tiles[ty * tilesX + tx].add(i);
+				}
+			}
+		}
+
+		// Rasterize the tiles
+		if (tiled) {
+			for (int i = 0; i < tiles.length; i++) {
+				tiles[i].reinitialize();
+			}
+			rasterizeTiles.reinitialize();
+			pool.invoke(rasterizeTiles);
+		} else {
+			for (int i = 0; i < tiles.length; i++) {
+				tiles[i].compute();
+			}
+		}
+
+		this.triangles = null;
+		this.frameBuffer = null;
+	}
+}
@@ -0,0 +1,509 @@
+package jrtr;
+
+import javax.vecmath.Matrix4f;
+
+/**
+ * A triangle that is ready for rasterization in the software renderer. The
+ * triangle refers to its vertices by their index in a {@link SWVertexBuffer},
+ * which stores them in clip space. The viewport transformation is applied
+ * when the triangle is set up. The triangle also stores its screen space
+ * bounding box, which is used by {@link SWTileRasterizer} to bin it into
+ * tiles.
+ * <p>
+ * The triangle is rasterized with edge functions. They are set up once per
+ * triangle in fixed point with {@link #SUBPIXEL_BITS} bits of sub-pixel
+ * precision and stepped incrementally from pixel to pixel. The bounding box
+ * is first traversed in blocks of 8x8 pixels, and blocks that lie completely
+ * outside of an edge are skipped. Pixels exactly on an edge are only drawn if
+ * the edge is a top or left edge, so pixels on an edge shared by two
+ * triangles are drawn exactly once.
+ * <p>
+ * The pixels of a row that lie inside of the triangle are consecutive,
+ * because the triangle is convex. In each row of blocks, the first and last
+ * of them are found by stepping the edge functions inwards from the outer
+ * blocks that were not rejected, without entering the blocks that lie
+ * completely inside. The pixels are then shaded as one span, along which the
+ * varyings, i.e., the texture coordinates or the colors, are interpolated by
+ * an {@link SWInterpolator}.
+ * <p>
+ * Textured triangles are sampled with the level of detail computed from the
+ * screen space derivatives of the texture coordinates. They are derived
+ * analytically from the derivatives of u/w, v/w and 1/w, which are constant
+ * over the triangle.
+ * <p>
+ * Lit triangles also interpolate the view space normal and position, and
+ * each span is lit by {@link SWLighting}. The texture of a lit triangle is
+ * modulated with the light, like in OpenGL.
+ * <p>
+ * Triangles of a material with an {@link SWShader} interpolate the varyings
+ * of its program instead, and each span is shaded by the program.
+ * <p>
+ * Faces are culled once per triangle, from the sign of its area on the
+ * screen. Back faces that are not culled are drawn with two vertices swapped.
+ * <p>
+ * All vertices must lie in front of the eye and inside of the guard band,
+ * which is ensured by clipping the triangles with {@link SWClipper} first.
+ * <p>
+ * Triangles are reused from frame to frame by calling {@link #setup setup}
+ * again, hence they do not allocate any memory.
+ */
+public class SWTriangle {
+
+	/**
+	 * Number of fractional bits of the fixed point vertex coordinates.
+	 */
+	public static final int SUBPIXEL_BITS = 8;
+
+	/**
+	 * Vertices must be within this many pixels of the origin to be
+	 * rasterized in fixed point without overflow.
+	 */
+	public static final float GUARD_BAND = 1 << 14;
+
+	private static final int BLOCK_SIZE = 8;
+
+	private boolean textured, lit;
+	private int xMin, xMax, yMin, yMax;
+
+	// Edge functions e_i(x,y) = a_i*x + b_i*y + c_i at pixel (x,y). Edge i is
+	// the edge opposite to vertex i, hence e_i/area is the barycentric
+	// coordinate of vertex i.
+	private long a0, b0, c0, a1, b1, c1, a2, b2, c2;
+
+	private SWInterpolator interpolator;
+	private SWTexture texture;
+	private boolean mipmapped;
+	private SWLighting lighting;
+	private Material material;
+	private SWShader.Program program;
+
+	public SWTriangle() {
+		interpolator = new SWInterpolator();
+	}
+
+	/**
+	 * Set up the triangle for rasterization.
+	 *
+	 * @param vb
+	 *            the vertex buffer
+	 * @param i0
+	 *            the index of the first vertex in the vertex buffer
+	 * @param i1
+	 *            the index of the second vertex
+	 * @param i2
+	 *            the index of the third vertex
+	 * @param viewport
+	 *            the viewport matrix
+	 * @param width
+	 *            the width of the viewport
+	 * @param height
+	 *            the height of the viewport
+	 * @param texture
+	 *            the texture, or null if the triangle is drawn with vertex
+	 *            colors; its mipmap levels must be up to date
+	 * @param cullMode
+	 *            which faces are not drawn
+	 * @param lighting
+	 *            the lights, or null if the triangle is not lit; lit
+	 *            triangles without a shader program need view space normals
+	 *            in the vertex buffer
+	 * @param material
+	 *            the material of a lit or shaded triangle
+	 * @param program
+	 *            the shader program, or null; the varyings of the program
+	 *            must be in the vertex buffer, and the triangle is neither
+	 *            textured nor lit by the renderer then
+	 */
+	public void setup(SWVertexBuffer vb, int i0, int i1, int i2,
+			Matrix4f viewport, int width, int height, SWTexture texture,
+			Material.CullMode cullMode, SWLighting lighting,
+			Material material, SWShader.Program program) {
+		this.program = program;
+		this.texture = texture;
+		textured = texture != null && program == null;
+		mipmapped = textured && texture.isMipmapped();
+		this.lighting = lighting;
+		lit = lighting != null && program == null;
+		this.material = material;
+
+		int orientation = setup(vb.x[i0], vb.y[i0], vb.w[i0], vb.x[i1],
+				vb.y[i1], vb.w[i1], vb.x[i2], vb.y[i2], vb.w[i2], viewport,
+				width, height, cullMode);
+		if (orientation < 0) {
+			int i = i1;
+			i1 = i2;
+			i2 = i;
+		}
+		if (orientation != 0 && program != null) {
+			int n = program.getVaryingCount();
+			interpolator.setVaryingCount(n);
+			for (int k = 0; k < n; k++) {
+				float[] v = vb.varyings[k];
+				interpolator.setVarying(k, v[i0], v[i1], v[i2]);
+			}
+		} else if (orientation != 0) {
+			if (lit) {
+				int k = textured ? 2 : 0;
+				interpolator.setVaryingCount(k + 6);
+				interpolator.setVarying(k, vb.nx[i0], vb.nx[i1], vb.nx[i2]);
+				interpolator.setVarying(k + 1, vb.ny[i0], vb.ny[i1], vb.ny[i2]);
+				interpolator.setVarying(k + 2, vb.nz[i0], vb.nz[i1], vb.nz[i2]);
+				interpolator.setVarying(k + 3, vb.ex[i0], vb.ex[i1], vb.ex[i2]);
+				interpolator.setVarying(k + 4, vb.ey[i0], vb.ey[i1], vb.ey[i2]);
+				interpolator.setVarying(k + 5, vb.ez[i0], vb.ez[i1], vb.ez[i2]);
+			}
+			if (textured) {
+				if (!lit)
+					interpolator.setVaryingCount(2);
+				interpolator.setVarying(0, vb.u[i0], vb.u[i1], vb.u[i2]);
+				interpolator.setVarying(1, vb.v[i0], vb.v[i1], vb.v[i2]);
+			} else if (!lit) {
+				interpolator.setVaryingCount(3);
+				interpolator.setVarying(0, vb.r[i0], vb.r[i1], vb.r[i2]);
+				interpolator.setVarying(1, vb.g[i0], vb.g[i1], vb.g[i2]);
+				interpolator.setVarying(2, vb.b[i0], vb.b[i1], vb.b[i2]);
+			}
+		}
+	}
+
+	/**
+	 * Set up the edge functions, the bounding box and the plane of 1/w.
+	 *
+	 * @return 1 if the triangle is front facing, -1 if it is back facing and
+	 *         the second and third vertex have been swapped, and 0 if it is
+	 *         not visible
+	 */
+	private int setup(float ax, float ay, float aw, float bx, float by,
+			float bw, float cx, float cy, float cw, Matrix4f viewport,
+			int width, int height, Material.CullMode cullMode) {
+		xMin = yMin = 0;
+		xMax = yMax = -1;
+		if (!(aw > 0 && bw > 0 && cw > 0))
+			return 0;
+
+		// Homogeneous division and viewport transformation
+		ax = viewport.m00 * ax / aw + viewport.m03;
+		ay = viewport.m11 * ay / aw + viewport.m13;
+		bx = viewport.m00 * bx / bw + viewport.m03;
+		by = viewport.m11 * by / bw + viewport.m13;
+		cx = viewport.m00 * cx / cw + viewport.m03;
+		cy = viewport.m11 * cy / cw + viewport.m13;
+		if (Math.abs(ax) > GUARD_BAND || Math.abs(ay) > GUARD_BAND
+				|| Math.abs(bx) > GUARD_BAND || Math.abs(by) > GUARD_BAND
+				|| Math.abs(cx) > GUARD_BAND || Math.abs(cy) > GUARD_BAND)
+			return 0;
+
+		// Snap to the sub-pixel grid
+		long x0 = Math.round(ax * (1 << SUBPIXEL_BITS));
+		long y0 = Math.round(ay * (1 << SUBPIXEL_BITS));
+		long x1 = Math.round(bx * (1 << SUBPIXEL_BITS));
+		long y1 = Math.round(by * (1 << SUBPIXEL_BITS));
+		long x2 = Math.round(cx * (1 << SUBPIXEL_BITS));
+		long y2 = Math.round(cy * (1 << SUBPIXEL_BITS));
+
+		// Counter-clockwise triangles have positive area and are front
+		// facing. Triangles without area are never drawn.
+		long area = (x2 - x1) * (y0 - y1) - (y2 - y1) * (x0 - x1);
+		int orientation = area > 0 ? 1 : -1;
+		if (area == 0 || (orientation > 0 && cullMode == Material.CullMode.FRONT)
+				|| (orientation < 0 && cullMode == Material.CullMode.BACK))
+			return 0;
+		if (orientation < 0) {
+			long t = x1;
+			x1 = x2;
+			x2 = t;
+			t = y1;
+			y1 = y2;
+			y2 = t;
+			float f = bw;
+			bw = cw;
+			cw = f;
+			area = -area;
+		}
+
+		a0 = -(y2 - y1) << SUBPIXEL_BITS;
+		b0 = (x2 - x1) << SUBPIXEL_BITS;
+		c0 = (y2 - y1) * x1 - (x2 - x1) * y1 - bias(x2 - x1, y2 - y1);
+		a1 = -(y0 - y2) << SUBPIXEL_BITS;
+		b1 = (x0 - x2) << SUBPIXEL_BITS;
+		c1 = (y0 - y2) * x2 - (x0 - x2) * y2 - bias(x0 - x2, y0 - y2);
+		a2 = -(y1 - y0) << SUBPIXEL_BITS;
+		b2 = (x1 - x0) << SUBPIXEL_BITS;
+		c2 = (y1 - y0) * x0 - (x1 - x0) * y0 - bias(x1 - x0, y1 - y0);
+
+		float s = 1.f / (1 << SUBPIXEL_BITS);
+		interpolator.setup(x0 * s, y0 * s, 1 / aw, x1 * s, y1 * s, 1 / bw, x2
+				* s, y2 * s, 1 / cw);
+
+		// Pixel centers are at integer coordinates
+		int mask = (1 << SUBPIXEL_BITS) - 1;
+		bound((int) ((Math.min(x0, Math.min(x1, x2)) + mask) >> SUBPIXEL_BITS),
+				(int) (Math.max(x0, Math.max(x1, x2)) >> SUBPIXEL_BITS),
+				(int) ((Math.min(y0, Math.min(y1, y2)) + mask) >> SUBPIXEL_BITS),
+				(int) (Math.max(y0, Math.max(y1, y2)) >> SUBPIXEL_BITS),
+				width, height);
+		return orientation;
+	}
+
+	/**
+	 * Top-left fill rule. Going counter-clockwise with y pointing up, left
+	 * edges point down and top edges point to the left. Pixels on all other
+	 * edges are excluded by biasing the edge function by one.
+	 */
+	private static long bias(long dx, long dy) {
+		return (dy < 0 || (dy == 0 && dx < 0)) ? 0 : 1;
+	}
+
+	private void bound(int xs, int xe, int ys, int ye, int width, int height) {
+		xMin = Math.max(0, xs);
+		xMax = Math.min(width - 1, xe);
+		yMin = Math.max(0, ys);
+		yMax = Math.min(height - 1, ye);
+	}
+
+	/**
+	 * @return true if the triangle does not cover any pixel of the viewport
+	 */
+	public boolean isEmpty() {
+		return xMin > xMax || yMin > yMax;
+	}
+
+	public int getXMin() {
+		return xMin;
+	}
+
+	public int getXMax() {
+		return xMax;
+	}
+
+	public int getYMin() {
+		return yMin;
+	}
+
+	public int getYMax() {
+		return yMax;
+	}
+
+	/**
+	 * Rasterize the part of the triangle that lies in the given rectangle of
+	 * pixels. The color and depth arrays hold the rectangle row by row, with
+	 * the first row at window y coordinate <code>y0</code>. The depth buffer
+	 * stores 1/w, i.e., larger values are closer to the eye.
+	 *
+	 * @param span
+	 *            receives the interpolated values of each span; must not be
+	 *            used by another thread at the same time
+	 */
+	public void rasterize(int x0, int y0, int w, int h, int[] color,
+			float[] depth, SWInterpolator.Span span) {
+		int xs = Math.max(x0, xMin);
+		int xe = Math.min(x0 + w - 1, xMax);
+		int ys = Math.max(y0, yMin);
+		int ye = Math.min(y0 + h - 1, yMax);
+		if (xs > xe || ys > ye)
+			return;
+
+		// Traverse the bounding box in rows of blocks aligned to the block
+		// grid
+		for (int by = ys & ~(BLOCK_SIZE - 1); by <= ye; by += BLOCK_SIZE) {
+			int bys = Math.max(by, ys);
+			int bye = Math.min(by + BLOCK_SIZE - 1, ye);
+
+			// The range of pixels of the blocks that are not rejected, and of
+			// the blocks that lie completely inside of all edges. Both are
+			// consecutive, because the triangle is convex.
+			int first = xe + 1, last = xs - 1;
+			int insideFirst = xe + 1, insideLast = xs - 1;
+			for (int bx = xs & ~(BLOCK_SIZE - 1); bx <= xe; bx += BLOCK_SIZE) {
+				int bxs = Math.max(bx, xs);
+				int bxe = Math.min(bx + BLOCK_SIZE - 1, xe);
+
+				// Reject the block if it lies outside of an edge, accept it
+				// completely if it lies inside of all edges
+				if (corner(a0, b0, c0, bxs, bxe, bys, bye, true) < 0
+						|| corner(a1, b1, c1, bxs, bxe, bys, bye, true) < 0
+						|| corner(a2, b2, c2, bxs, bxe, bys, bye, true) < 0)
+					continue;
+				first = Math.min(first, bxs);
+				last = bxe;
+				if (corner(a0, b0, c0, bxs, bxe, bys, bye, false) >= 0
+						&& corner(a1, b1, c1, bxs, bxe, bys, bye, false) >= 0
+						&& corner(a2, b2, c2, bxs, bxe, bys, bye, false) >= 0) {
+					insideFirst = Math.min(insideFirst, bxs);
+					insideLast = bxe;
+				}
+			}
+			if (first > last)
+				continue;
+
+			for (int y = bys; y <= bye; y++) {
+				int l, r;
+				if (insideFirst <= insideLast) {
+					l = scan(first, insideFirst, y, 1);
+					r = scan(last, insideLast, y, -1);
+				} else {
+					l = scan(first, last + 1, y, 1);
+					if (l > last)
+						continue;
+					r = scan(last, l, y, -1);
+				}
+				shade(l, y, r - l + 1, (y - y0) * w + l - x0, color, depth,
+						span);
+			}
+		}
+	}
+
+	/**
+	 * Evaluate an edge function at the block corner where it is maximal (or
+	 * minimal).
+	 */
+	private static long corner(long a, long b, long c, int xs, int xe, int ys,
+			int ye, boolean max) {
+		int x = (a > 0) == max ? xe : xs;
+		int y = (b > 0) == max ? ye : ys;
+		return a * x + b * y + c;
+	}
+
+	/**
+	 * Step the edge functions along a row, starting at pixel x, until a pixel
+	 * inside of all edges or pixel end is reached.
+	 *
+	 * @param step
+	 *            1 to step to the right, -1 to step to the left
+	 * @return the x coordinate of the pixel that was reached
+	 */
+	private int scan(int x, int end, int y, int step) {
+		long e0 = a0 * x + b0 * y + c0;
+		long e1 = a1 * x + b1 * y + c1;
+		long e2 = a2 * x + b2 * y + c2;
+		long d0 = step * a0, d1 = step * a1, d2 = step * a2;
+		while (x != end && (e0 | e1 | e2) < 0) {
+			e0 += d0;
+			e1 += d1;
+			e2 += d2;
+			x += step;
+		}
+		return x;
+	}
+
+	/**
+	 * Shade a span of pixels that lie inside of the triangle.
+	 */
+	private void shade(int x, int y, int length, int i, int[] color,
+			float[] depth, SWInterpolator.Span span) {
+		interpolator.begin(span, x, y, length);
+		if (program != null)
+			shadeProgram(span, i, color, depth);
+		else if (textured)
+			shadeTexture(span, i, color, depth);
+		else if (lit)
+			shadeLit(span, i, color, depth);
+		else
+			shadeColors(span, i, color, depth);
+	}
+
+	/**
+	 * Depth test a span, and interpolate its varyings if any of its pixels
+	 * passes.
+	 */
+	private boolean visible(SWInterpolator.Span span, int i, float[] depth) {
+		float[] invW = span.invW;
+		boolean visible = false;
+		for (int j = 0; j < span.length; j++) {
+			visible |= invW[j] > depth[i + j];
+		}
+		if (visible)
+			interpolator.interpolate(span);
+		return visible;
+	}
+
+	private void shadeColors(SWInterpolator.Span span, int i, int[] color,
+			float[] depth) {
+		if (!visible(span, i, depth))
+			return;
+
+		float[] invW = span.invW;
+		float[] r = span.varyings[0], g = span.varyings[1];
+		float[] b = span.varyings[2];
+		for (int j = 0; j < span.length; j++, i++) {
+			if (invW[j] > depth[i]) {
+				depth[i] = invW[j];
+				color[i] = clamp((int) (255 * r[j]), 255) << 16
+						| clamp((int) (255 * g[j]), 255) << 8
+						| clamp((int) (255 * b[j]), 255);
+			}
+		}
+	}
+
+	private void shadeLit(SWInterpolator.Span span, int i, int[] color,
+			float[] depth) {
+		if (!visible(span, i, depth))
+			return;
+		lighting.shade(span, 0, material);
+		write(span, i, color, depth);
+	}
+
+	private void shadeProgram(SWInterpolator.Span span, int i, int[] color,
+			float[] depth) {
+		if (!visible(span, i, depth))
+			return;
+		program.fragment(span, interpolator, material, texture, lighting);
+		write(span, i, color, depth);
+	}
+
+	/**
+	 * Depth test the pixels of a span, and write the colors computed by a
+	 * shading stage.
+	 */
+	private void write(SWInterpolator.Span span, int i, int[] color,
+			float[] depth) {
+		float[] invW = span.invW;
+		float[] r = span.r, g = span.g, b = span.b;
+		for (int j = 0; j < span.length; j++, i++) {
+			if (invW[j] > depth[i]) {
+				depth[i] = invW[j];
+				color[i] = clamp((int) (255 * r[j]), 255) << 16
+						| clamp((int) (255 * g[j]), 255) << 8
+						| clamp((int) (255 * b[j]), 255);
+			}
+		}
+	}
+
+	private void shadeTexture(SWInterpolator.Span span, int i, int[] color,
+			float[] depth) {
+		if (!visible(span, i, depth))
+			return;
+		if (lit)
+			lighting.shade(span, 2, material);
+
+		float[] invW = span.invW;
+		float[] u = span.varyings[0], v = span.varyings[1];
+		float tw = texture.getWidth(0), th = texture.getHeight(0);
+
+		for (int j = 0; j < span.length; j++, i++) {
+			if (!(invW[j] > depth[i]))
+				continue;
+			depth[i] = invW[j];
+
+			float lod = mipmapped ? interpolator.getLod(0, 1, u[j], v[j],
+					invW[j], tw, th) : 0;
+			int c = texture.sample(u[j], v[j], lod);
+			if (lit)
+				c = modulate(c, span.r[j], span.g[j], span.b[j]);
+			color[i] = c;
+		}
+	}
+
+	/**
+	 * Multiply a color with the light.
+	 */
+	private static int modulate(int c, float r, float g, float b) {
+		return clamp((int) (((c >> 16) & 0xff) * r), 255) << 16
+				| clamp((int) (((c >> 8) & 0xff) * g), 255) << 8
+				| clamp((int) ((c & 0xff) * b), 255);
+	}
+
+	private static int clamp(int i, int max) {
+		return i < 0 ? 0 : (i > max ? max : i);
+	}
+}
@@ -0,0 +1,474 @@
+package jrtr;
+
+import java.nio.FloatBuffer;
+import java.util.LinkedList;
+import java.util.ListIterator;
+
+import javax.vecmath.Matrix3f;
+import javax.vecmath.Matrix4f;
+
+/**
+ * Stores the transformed vertices of all objects in a frame of the software
+ * renderer. The vertices are kept in a structure of arrays: one float array
+ * per component of the clip space position and of every attribute. The
+ * arrays only grow, so after the first frames no memory is allocated.
+ * <p>
+ * Each vertex of a {@link VertexData} is transformed exactly once by
+ * {@link #add(VertexData, Matrix4f)}. Alternatively, only the vertices
+ * referenced by the index array are transformed on demand through a
+ * {@link SWVertexCache}. Triangles then refer to the vertices by their index
+ * in this buffer.
+ * <p>
+ * For lighting, the vertices can also be transformed to view space by a
+ * modelview matrix. The view space positions and normals are then stored as
+ * well.
+ * <p>
+ * Software shaders ({@link SWShader.Program}) store the varyings they
+ * compute for each vertex in the buffer, too.
+ */
+public class SWVertexBuffer {
+
+	/**
+	 * Clip space position.
+	 */
+	public float[] x, y, z, w;
+
+	/**
+	 * Color, clamped to [0,1]. Vertices without a color are white.
+	 */
+	public float[] r, g, b;
+
+	/**
+	 * Texture coordinates.
+	 */
+	public float[] u, v;
+
+	/**
+	 * View space position and normal, if the vertices were transformed with
+	 * a modelview matrix. The normals are not normalized.
+	 */
+	public float[] ex, ey, ez, nx, ny, nz;
+
+	/**
+	 * Varying k of vertex i is <code>varyings[k][i]</code>, for the number
+	 * of varyings set by {@link #setVaryingCount(int)}.
+	 */
+	public float[][] varyings;
+
+	private int size, varyingCount;
+	private boolean hasColors, hasTexCoords, hasNormals;
+
+	// The attributes of the vertex data that is being added. Component c of
+	// vertex i is at index i * stride + offset + c of the array of the
+	// vertex element, or of the interleaved buffer if the array is null. The
+	// arrays are read directly, so no buffers are wrapped around them.
+	private float[] positionArray, colorArray, texCoordArray, normalArray;
+	private FloatBuffer interleavedData;
+	private boolean positionsBound, colorsBound, texCoordsBound, normalsBound;
+	private int nPosition, positionStride, positionOffset;
+	private int colorStride, colorOffset;
+	private int texCoordStride, texCoordOffset;
+	private int normalStride, normalOffset;
+	private CompactVertexData compact;
+	private boolean compactPositions, compactTexCoords, compactNormals;
+
+	// The object-to-view space transformation of positions and normals, if
+	// the vertices are transformed to view space
+	private Matrix4f modelView;
+	private Matrix3f normalMatrix;
+
+	public SWVertexBuffer() {
+		varyings = new float[0][];
+		allocate(1024);
+	}
+
+	/**
+	 * Remove all vertices.
+	 */
+	public void clear() {
+		size = 0;
+	}
+
+	/**
+	 * @return the number of vertices in the buffer
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return true if the vertices added last had colors
+	 */
+	public boolean hasColors() {
+		return hasColors;
+	}
+
+	/**
+	 * @return true if the vertices added last had texture coordinates
+	 */
+	public boolean hasTexCoords() {
+		return hasTexCoords;
+	}
+
+	/**
+	 * @return true if the vertices added last had normals and were
+	 *         transformed to view space
+	 */
+	public boolean hasNormals() {
+		return hasNormals;
+	}
+
+	/**
+	 * Set the number of varyings of the vertices added from now on. The
+	 * varyings are not computed by the buffer, but interpolated for the
+	 * vertices that are added by clipping.
+	 */
+	public void setVaryingCount(int n) {
+		if (n > varyings.length) {
+			float[][] v = new float[n][];
+			System.arraycopy(varyings, 0, v, 0, varyings.length);
+			for (int k = varyings.length; k < n; k++) {
+				v[k] = new float[x.length];
+			}
+			varyings = v;
+		}
+		varyingCount = n;
+	}
+
+	public int getVaryingCount() {
+		return varyingCount;
+	}
+
+	/**
+	 * Transform the vertices added from now on to view space as well, or
+	 * stop doing so.
+	 *
+	 * @param modelView
+	 *            the object-to-view space transformation, or null
+	 */
+	public void setModelView(Matrix4f modelView) {
+		if (modelView == null) {
+			this.modelView = null;
+			return;
+		}
+		if (this.modelView == null) {
+			this.modelView = new Matrix4f();
+			normalMatrix = new Matrix3f();
+		}
+		this.modelView.set(modelView);
+
+		// Normals are transformed by the inverse transpose. If the matrix is
+		// singular, the normals are not drawn correctly anyway.
+		modelView.getRotationScale(normalMatrix);
+		try {
+			normalMatrix.invert();
+			normalMatrix.transpose();
+		} catch (RuntimeException e) {
+			modelView.getRotationScale(normalMatrix);
+		}
+	}
+
+	/**
+	 * Transform all vertices of the vertex data to clip space and append them
+	 * to the buffer.
+	 *
+	 * @param vertexData
+	 *            the vertices
+	 * @param m
+	 *            the object-to-clip space transformation
+	 * @return the index of the first vertex in the buffer
+	 */
+	public int add(VertexData vertexData, Matrix4f m) {
+		int n = vertexData.getNumberOfVertices();
+		int base = size;
+		reserve(n);
+		bind(vertexData);
+
+		for (int i = 0; i < n; i++) {
+			transform(i, base + i, m);
+		}
+
+		size = base + n;
+		return base;
+	}
+
+	/**
+	 * Transform the vertices referenced by an index array through a
+	 * post-transform vertex cache. Only vertices that are not in the cache
+	 * are transformed and appended to the buffer, in the order in which they
+	 * are first referenced.
+	 *
+	 * @param vertexData
+	 *            the vertices
+	 * @param m
+	 *            the object-to-clip space transformation
+	 * @param cache
+	 *            the vertex cache; it is cleared before use
+	 * @param slots
+	 *            receives the index in the buffer for each index of the index
+	 *            array
+	 */
+	public void add(VertexData vertexData, Matrix4f m, SWVertexCache cache,
+			int[] slots) {
+		int count = vertexData.getIndexCount();
+		reserve(count);
+		bind(vertexData);
+		cache.clear();
+
+		for (int j = 0; j < count; j++) {
+			int i = vertexData.getIndex(j);
+			int k = cache.get(i);
+			if (k < 0) {
+				k = size++;
+				transform(i, k, m);
+				cache.put(i, k);
+			}
+			slots[j] = k;
+		}
+	}
+
+	/**
+	 * Append a vertex that lies on the line between two vertices, as it is
+	 * needed for clipping. All components are interpolated linearly.
+	 *
+	 * @param i
+	 *            the index of the first vertex
+	 * @param j
+	 *            the index of the second vertex
+	 * @param t
+	 *            the interpolation weight of the second vertex
+	 * @return the index of the new vertex
+	 */
+	public int interpolate(int i, int j, float t) {
+		reserve(1);
+		int k = size++;
+		x[k] = x[i] + t * (x[j] - x[i]);
+		y[k] = y[i] + t * (y[j] - y[i]);
+		z[k] = z[i] + t * (z[j] - z[i]);
+		w[k] = w[i] + t * (w[j] - w[i]);
+		r[k] = r[i] + t * (r[j] - r[i]);
+		g[k] = g[i] + t * (g[j] - g[i]);
+		b[k] = b[i] + t * (b[j] - b[i]);
+		u[k] = u[i] + t * (u[j] - u[i]);
+		v[k] = v[i] + t * (v[j] - v[i]);
+		ex[k] = ex[i] + t * (ex[j] - ex[i]);
+		ey[k] = ey[i] + t * (ey[j] - ey[i]);
+		ez[k] = ez[i] + t * (ez[j] - ez[i]);
+		nx[k] = nx[i] + t * (nx[j] - nx[i]);
+		ny[k] = ny[i] + t * (ny[j] - ny[i]);
+		nz[k] = nz[i] + t * (nz[j] - nz[i]);
+		for (int l = 0; l < varyingCount; l++) {
+			float[] a = varyings[l];
+			a[k] = a[i] + t * (a[j] - a[i]);
+		}
+		return k;
+	}
+
+	/**
+	 * Make sure that n more vertices fit into the buffer.
+	 */
+	private void reserve(int n) {
+		if (size + n > x.length) {
+			allocate(Math.max(size + n, 2 * x.length));
+		}
+	}
+
+	/**
+	 * Look up the vertex attributes once, so the elements do not need to be
+	 * searched for every vertex. Attributes are read from the interleaved
+	 * buffer of the vertex data if it has one, otherwise from the separate
+	 * vertex elements. Compact positions, normals and texture coordinates are
+	 * decoded when the vertices are transformed.
+	 */
+	private void bind(VertexData vertexData) {
+		positionArray = colorArray = texCoordArray = normalArray = null;
+		interleavedData = null;
+		positionsBound = colorsBound = texCoordsBound = normalsBound = false;
+
+		compact = vertexData.getCompact();
+		compactPositions = compact != null && compact.hasPositions();
+		compactTexCoords = compact != null && compact.hasTexCoords();
+		compactNormals = compact != null && compact.hasNormals();
+
+		InterleavedVertexData interleaved = vertexData.getInterleaved();
+		if (interleaved != null) {
+			interleavedData = interleaved.getFloatBuffer();
+			int stride = interleaved.getStride();
+			if (interleaved.hasSemantic(VertexData.Semantic.POSITION)) {
+				positionsBound = true;
+				nPosition = interleaved
+						.getNumberOfComponents(VertexData.Semantic.POSITION);
+				positionStride = stride;
+				positionOffset = interleaved
+						.getOffset(VertexData.Semantic.POSITION);
+			}
+			if (interleaved.getNumberOfComponents(VertexData.Semantic.COLOR) >= 3) {
+				colorsBound = true;
+				colorStride = stride;
+				colorOffset = interleaved.getOffset(VertexData.Semantic.COLOR);
+			}
+			if (interleaved.getNumberOfComponents(VertexData.Semantic.TEXCOORD) >= 2) {
+				texCoordsBound = true;
+				texCoordStride = stride;
+				texCoordOffset = interleaved
+						.getOffset(VertexData.Semantic.TEXCOORD);
+			}
+			if (interleaved.getNumberOfComponents(VertexData.Semantic.NORMAL) >= 3) {
+				normalsBound = true;
+				normalStride = stride;
+				normalOffset = interleaved
+						.getOffset(VertexData.Semantic.NORMAL);
+			}
+		}
+
+		LinkedList<VertexData.VertexElement> vertexElements = vertexData
+				.getElements();
+		ListIterator<VertexData.VertexElement> itr = vertexElements
+				.listIterator(0);
+		while (itr.hasNext()) {
+			VertexData.VertexElement e = itr.next();
+			int c = e.getNumberOfComponents();
+
+			if (e.getSemantic() == VertexData.Semantic.POSITION
+					&& !positionsBound) {
+				positionArray = e.getData();
+				positionsBound = true;
+				nPosition = c;
+				positionStride = c;
+				positionOffset = 0;
+			} else if (e.getSemantic() == VertexData.Semantic.COLOR && c >= 3
+					&& !colorsBound) {
+				colorArray = e.getData();
+				colorsBound = true;
+				colorStride = c;
+				colorOffset = 0;
+			} else if (e.getSemantic() == VertexData.Semantic.TEXCOORD
+					&& c >= 2 && !texCoordsBound) {
+				texCoordArray = e.getData();
+				texCoordsBound = true;
+				texCoordStride = c;
+				texCoordOffset = 0;
+			} else if (e.getSemantic() == VertexData.Semantic.NORMAL && c >= 3
+					&& !normalsBound) {
+				normalArray = e.getData();
+				normalsBound = true;
+				normalStride = c;
+				normalOffset = 0;
+			}
+		}
+		hasColors = colorsBound;
+		hasTexCoords = texCoordsBound || compactTexCoords;
+		hasNormals = modelView != null && (normalsBound || compactNormals);
+	}
+
+	/**
+	 * Transform vertex i of the bound vertex data into slot k.
+	 */
+	private void transform(int i, int k, Matrix4f m) {
+		float px = 0, py = 0, pz = 0, pw = 1;
+		if (compactPositions) {
+			px = compact.getPosition(i, 0);
+			py = compact.getPosition(i, 1);
+			pz = compact.getPosition(i, 2);
+		} else if (positionsBound) {
+			int c = nPosition;
+			int p = i * positionStride + positionOffset;
+			float[] a = positionArray;
+			px = get(a, p);
+			py = c > 1 ? get(a, p + 1) : 0;
+			pz = c > 2 ? get(a, p + 2) : 0;
+			pw = c > 3 ? get(a, p + 3) : 1;
+		}
+		if (compactPositions || positionsBound) {
+			x[k] = m.m00 * px + m.m01 * py + m.m02 * pz + m.m03 * pw;
+			y[k] = m.m10 * px + m.m11 * py + m.m12 * pz + m.m13 * pw;
+			z[k] = m.m20 * px + m.m21 * py + m.m22 * pz + m.m23 * pw;
+			w[k] = m.m30 * px + m.m31 * py + m.m32 * pz + m.m33 * pw;
+		}
+		if (modelView != null) {
+			Matrix4f mv = modelView;
+			ex[k] = mv.m00 * px + mv.m01 * py + mv.m02 * pz + mv.m03 * pw;
+			ey[k] = mv.m10 * px + mv.m11 * py + mv.m12 * pz + mv.m13 * pw;
+			ez[k] = mv.m20 * px + mv.m21 * py + mv.m22 * pz + mv.m23 * pw;
+
+			// Vertices without normals get the default normal of OpenGL
+			float qx = 0, qy = 0, qz = 1;
+			if (compactNormals) {
+				qx = compact.getNormal(i, 0);
+				qy = compact.getNormal(i, 1);
+				qz = compact.getNormal(i, 2);
+			} else if (normalsBound) {
+				int p = i * normalStride + normalOffset;
+				qx = get(normalArray, p);
+				qy = get(normalArray, p + 1);
+				qz = get(normalArray, p + 2);
+			}
+			Matrix3f n = normalMatrix;
+			nx[k] = n.m00 * qx + n.m01 * qy + n.m02 * qz;
+			ny[k] = n.m10 * qx + n.m11 * qy + n.m12 * qz;
+			nz[k] = n.m20 * qx + n.m21 * qy + n.m22 * qz;
+		}
+		if (colorsBound) {
+			int p = i * colorStride + colorOffset;
+			r[k] = clamp(get(colorArray, p));
+			g[k] = clamp(get(colorArray, p + 1));
+			b[k] = clamp(get(colorArray, p + 2));
+		} else {
+			r[k] = 1;
+			g[k] = 1;
+			b[k] = 1;
+		}
+		if (compactTexCoords) {
+			u[k] = compact.getTexCoord(i, 0);
+			v[k] = compact.getTexCoord(i, 1);
+		} else if (texCoordsBound) {
+			int p = i * texCoordStride + texCoordOffset;
+			u[k] = get(texCoordArray, p);
+			v[k] = get(texCoordArray, p + 1);
+		} else {
+			u[k] = 0;
+			v[k] = 0;
+		}
+	}
+
+	/**
+	 * Read a float of a bound attribute from the array of its vertex element,
+	 * or from the interleaved buffer if the array is null.
+	 */
+	private float get(float[] a, int p) {
+		return a != null ? a[p] : interleavedData.get(p);
+	}
+
+	private static float clamp(float f) {
+		return f < 0 ? 0 : (f > 1 ? 1 : f);
+	}
+
+	private void allocate(int capacity) {
+		x = grow(x, capacity);
+		y = grow(y, capacity);
+		z = grow(z, capacity);
+		w = grow(w, capacity);
+		r = grow(r, capacity);
+		g = grow(g, capacity);
+		b = grow(b, capacity);
+		u = grow(u, capacity);
+		v = grow(v, capacity);
+		ex = grow(ex, capacity);
+		ey = grow(ey, capacity);
+		ez = grow(ez, capacity);
+		nx = grow(nx, capacity);
+		ny = grow(ny, capacity);
+		nz = grow(nz, capacity);
+		for (int k = 0; k < varyings.length; k++) {
+			varyings[k] = grow(varyings[k], capacity);
+		}
+	}
+
+	private float[] grow(float[] a, int capacity) {
+		float[] f = new float[capacity];
+		if (a != null) {
+			System.arraycopy(a, 0, f, 0, size);
+		}
+		return f;
+	}
+}
@@ -0,0 +1,107 @@
+package jrtr;
+
+/**
+ * A post-transform vertex cache with first-in first-out replacement. It maps
+ * the index of a vertex in a {@link VertexData} to the slot of the
+ * transformed vertex in a {@link SWVertexBuffer}. The cache counts its hits
+ * and misses, from which the average cache miss ratio (ACMR), i.e., the
+ * number of transformed vertices per triangle, is computed.
+ */
+public class SWVertexCache {
+
+	private int[] keys, values;
+	private int next;
+	private int lookups, misses;
+
+	/**
+	 * Make a cache with the given number of entries.
+	 */
+	public SWVertexCache(int size) {
+		keys = new int[size];
+		values = new int[size];
+		clear();
+	}
+
+	public int getSize() {
+		return keys.length;
+	}
+
+	/**
+	 * Remove all entries. This does not reset the statistics.
+	 */
+	public void clear() {
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = -1;
+		}
+		next = 0;
+	}
+
+	/**
+	 * Reset the hit and miss counters.
+	 */
+	public void resetStatistics() {
+		lookups = 0;
+		misses = 0;
+	}
+
+	/**
+	 * Look up a vertex.
+	 *
+	 * @param index
+	 *            the index of the vertex
+	 * @return the cached value, or -1 if the vertex is not in the cache
+	 */
+	public int get(int index) {
+		lookups++;
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] == index)
+				return values[i];
+		}
+		misses++;
+		return -1;
+	}
+
+	/**
+	 * Add a vertex to the cache, replacing the oldest entry.
+	 */
+	public void put(int index, int value) {
+		keys[next] = index;
+		values[next] = value;
+		next = (next + 1) % keys.length;
+	}
+
+	public int getLookups() {
+		return lookups;
+	}
+
+	public int getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return the average number of cache misses per triangle since the
+	 *         statistics were reset
+	 */
+	public float getACMR() {
+		return lookups == 0 ? 0 : 3.f * misses / lookups;
+	}
+
+	/**
+	 * Simulate a FIFO cache on an index array.
+	 *
+	 * @param indices
+	 *            three indices per triangle
+	 * @param size
+	 *            the number of cache entries
+	 * @return the average number of cache misses per triangle
+	 */
+	public static float acmr(int[] indices, int size) {
+		SWVertexCache cache = new SWVertexCache(size);
+		for (int i = 0; i < indices.length; i++) {
+			if (cache.get(indices[i]) < 0) {
+				cache.put(indices[i], 0);
+			}
+		}
+		return cache.getACMR();
+	}
+}
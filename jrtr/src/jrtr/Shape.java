@@ -1,4 +1,6 @@
 package jrtr;
+import java.util.ListIterator;
+
 import javax.vecmath.*;
 
 /**
@@ -37,6 +39,63 @@ public class Shape {
 		return t;
 	}
 	
+	/**
+	 * Return the bounding box of the vertex positions in object space. It is
+	 * computed when it is first needed; call {@link #updateBounds()} if the
+	 * positions change afterwards.
+	 */
+	public BoundingBox getBounds()
+	{
+		if (bounds == null)
+			updateBounds();
+		return bounds;
+	}
+	
+	/**
+	 * Recompute the bounding box from the POSITION element of the vertex 
+	 * data, or from the quantization range of its compact positions.
+	 */
+	public void updateBounds()
+	{
+		if (bounds == null)
+			bounds = new BoundingBox();
+		bounds.setEmpty();
+		
+		CompactVertexData compact = vertexData.getCompact();
+		if (compact != null && compact.hasPositions())
+		{
+			compact.getBounds(bounds);
+			return;
+		}
+		
+		ListIterator<VertexData.VertexElement> itr = 
+			vertexData.getElements().listIterator(0);
+		while (itr.hasNext())
+		{
+			VertexData.VertexElement e = itr.next();
+			if (e.getSemantic() != VertexData.Semantic.POSITION)
+				continue;
+			
+			float[] p = e.getData();
+			int c = e.getNumberOfComponents();
+			int n = vertexData.getNumberOfVertices();
+			for (int i = 0; i < n; i++)
+			{
+				float x = p[i * c];
+				float y = c > 1 ? p[i * c + 1] : 0;
+				float z = c > 2 ? p[i * c + 2] : 0;
+				if (c > 3 && p[i * c + 3] != 0)
+				{
+					float w = p[i * c + 3];
+					x /= w;
+					y /= w;
+					z /= w;
+				}
+				bounds.include(x, y, z);
+			}
+		}
+	}
+	
 	/**
 	 * To be implemented in the "Textures and Shading" project.
 	 */
@@ -55,4 +114,5 @@ public class Shape {
 
 	private VertexData vertexData;
 	private Matrix4f t;
+	private BoundingBox bounds;
 }
@@ -12,6 +12,7 @@ public class ShapeNode extends Leaf {
     
     public void setShape(Shape shape) {
         this.shape = shape;
+        this.transformation.invalidate();
     }
     
     public Shape getShape() {
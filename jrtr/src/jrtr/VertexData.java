@@ -1,6 +1,7 @@
 package jrtr;
 
 import java.util.LinkedList;
+import java.util.ListIterator;
 
 /**
  * Provides functionality to specify 3D geometry in the form
@@ -85,12 +86,103 @@ public class VertexData {
 			{
 				vertexElements.addFirst(vertexElement);
 			}
+			version++;
 		}	
 	}
 	
 	public void addIndices(int indices[])
 	{
 		this.indices = indices;
+		shortIndices = null;
+		version++;
+	}
+	
+	/**
+	 * Set the index array in 16 bits instead of 32, which halves its size.
+	 * The indices are unsigned, so this is possible if there are at most 
+	 * 65536 vertices. {@link #getIndices()} returns null then; renderers 
+	 * read the indices with {@link #getIndex(int)} or 
+	 * {@link #getShortIndices()}.
+	 */
+	public void addShortIndices(short indices[])
+	{
+		shortIndices = indices;
+		this.indices = null;
+		version++;
+	}
+	
+	/**
+	 * Return a counter that is incremented whenever an element or the 
+	 * indices are added. Renderers that keep a copy of the vertex data use 
+	 * it to detect changes.
+	 */
+	public int getVersion()
+	{
+		return version;
+	}
+	
+	/**
+	 * Replace the position, normal and texture coordinate elements by a 
+	 * quantized encoding, see {@link CompactVertexData}. The float elements
+	 * are removed from the list of elements to save memory; renderers read
+	 * the compact data instead. Other elements, like colors, are kept.
+	 * 
+	 * @return the compact vertex data
+	 */
+	public CompactVertexData compact()
+	{
+		compact = new CompactVertexData(this);
+		ListIterator<VertexElement> itr = vertexElements.listIterator(0);
+		while(itr.hasNext())
+		{
+			Semantic s = itr.next().getSemantic();
+			if(s == Semantic.POSITION || s == Semantic.NORMAL || s == Semantic.TEXCOORD)
+				itr.remove();
+		}
+		version++;
+		return compact;
+	}
+	
+	/**
+	 * @return the compact vertex data, or null if {@link #compact()} has not
+	 * been called
+	 */
+	public CompactVertexData getCompact()
+	{
+		return compact;
+	}
+	
+	/**
+	 * Additionally store the vertex elements with the given semantics in an
+	 * interleaved buffer, which renderers use instead of the separate 
+	 * elements. If no semantics are given, all elements are interleaved. The
+	 * buffer is rebuilt when elements are added later.
+	 * 
+	 * @return the interleaved vertex data
+	 */
+	public InterleavedVertexData interleave(Semantic... semantics)
+	{
+		if(semantics.length == 0)
+			semantics = Semantic.values();
+		interleavedSemantics = semantics;
+		version++;
+		return getInterleaved();
+	}
+	
+	/**
+	 * @return the interleaved vertex data, or null if 
+	 * {@link #interleave(Semantic...)} has not been called
+	 */
+	public InterleavedVertexData getInterleaved()
+	{
+		if(interleavedSemantics == null)
+			return null;
+		if(interleaved == null || interleavedVersion != version)
+		{
+			interleaved = new InterleavedVertexData(this, interleavedSemantics);
+			interleavedVersion = version;
+		}
+		return interleaved;
 	}
 	
 	public LinkedList<VertexElement> getElements()
@@ -98,12 +190,49 @@ public class VertexData {
 		return vertexElements;
 	}
 	
+	/**
+	 * @return the index array, or null if there is none or the indices were
+	 * set with {@link #addShortIndices(short[])}
+	 */
 	public int[] getIndices()
 	{
 		return indices;
 	}
 	
+	/**
+	 * @return the indices set with {@link #addShortIndices(short[])}, or 
+	 * null
+	 */
+	public short[] getShortIndices()
+	{
+		return shortIndices;
+	}
+	
+	/**
+	 * @return the number of indices, 0 if there are none
+	 */
+	public int getIndexCount()
+	{
+		if(shortIndices != null)
+			return shortIndices.length;
+		return indices != null ? indices.length : 0;
+	}
+	
+	/**
+	 * @return index i, whether the indices are stored in 16 or 32 bits
+	 */
+	public int getIndex(int i)
+	{
+		return shortIndices != null ? shortIndices[i] & 0xffff : indices[i];
+	}
+	
 	private int n;
+	private int version;
 	private int[] indices;
+	private short[] shortIndices;
 	private LinkedList<VertexElement> vertexElements;
+	private CompactVertexData compact;
+	private Semantic[] interleavedSemantics;
+	private InterleavedVertexData interleaved;
+	private int interleavedVersion;
 }